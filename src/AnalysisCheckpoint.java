@@ -0,0 +1,160 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Контрольная точка долгого анализа: позиция, последняя завершенная глубина, статистика ходов в корне
+// и снимок таблицы транспозиций.
+//
+// Формат файла (little-endian):
+//   int MAGIC, int VERSION, int длина FEN, байты FEN
+//   int глубина, long узлов всего, long время анализа (мс), int ходов в корне,
+//   ходы в корне: int ход, int оценка, long узлов
+//   int записей таблицы, затем (с границы 8 байт) массив ключей long[] и массив данных long[]
+//
+// Таблица записывается и читается через FileChannel блоками по 1 МБ из повторно используемого direct-буфера.
+// Файл не отображается в память: отображение держит файл до сборки мусора, и на Windows его потом
+// нельзя заменить. Файл сначала пишется во временный и только потом атомарно заменяет старый, поэтому
+// прерывание процесса во время записи не портит предыдущую контрольную точку.
+final class AnalysisCheckpoint {
+    private static final int MAGIC = 0x4D434350;  // "MCCP"
+    private static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 20;  // 1 МБ на одну операцию записи или чтения
+
+    // Буфер потока, который пишет или читает контрольные точки (обычно это поток поиска)
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+
+    final String fen;
+    final ChessEngine.RootMoveStats rootMoves;
+    final long totalNodes;
+    final long elapsedMs;
+
+    AnalysisCheckpoint(String fen, ChessEngine.RootMoveStats rootMoves, long totalNodes, long elapsedMs) {
+        this.fen = fen;
+        this.rootMoves = rootMoves;
+        this.totalNodes = totalNodes;
+        this.elapsedMs = elapsedMs;
+    }
+
+    // Запись контрольной точки вместе с таблицей транспозиций
+    void write(Path file, TranspositionTable table) throws IOException {
+        byte[] fenBytes = fen.getBytes(StandardCharsets.UTF_8);
+        int headerSize = 12 + fenBytes.length + 24 + rootMoves.count * 16 + 4;
+        headerSize = (headerSize + 7) & ~7;
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(fenBytes.length).put(fenBytes);
+        header.putInt(rootMoves.depth).putLong(totalNodes).putLong(elapsedMs).putInt(rootMoves.count);
+        for (int i = 0; i < rootMoves.count; i++) {
+            header.putInt(rootMoves.moves[i]).putInt(rootMoves.scores[i]).putLong(rootMoves.nodes[i]);
+        }
+        header.putInt(table.size());
+        header.position(headerSize).flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                ByteBuffer buffer = BUFFER.get();
+                writeLongs(channel, buffer, table.keys);
+                writeLongs(channel, buffer, table.data);
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Недописанный файл не оставляем (например, при нехватке места на диске)
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // Чтение контрольной точки; таблица транспозиций заполняется из файла
+    static AnalysisCheckpoint read(Path file, TranspositionTable table) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 64 * 1024))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) break;
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Файл не является контрольной точкой анализа: " + file);
+            }
+            byte[] fenBytes = new byte[header.getInt()];
+            header.get(fenBytes);
+            int depth = header.getInt();
+            long totalNodes = header.getLong();
+            long elapsedMs = header.getLong();
+            int count = header.getInt();
+            int[] moves = new int[count];
+            int[] scores = new int[count];
+            long[] nodes = new long[count];
+            for (int i = 0; i < count; i++) {
+                moves[i] = header.getInt();
+                scores[i] = header.getInt();
+                nodes[i] = header.getLong();
+            }
+            int entries = header.getInt();
+            channel.position((header.position() + 7) & ~7);
+            ByteBuffer buffer = BUFFER.get();
+
+            if (entries == table.size()) {
+                // Размер совпадает - читаем массивы целиком
+                readLongs(channel, buffer, table.keys);
+                readLongs(channel, buffer, table.data);
+            } else {
+                // Таблица другого размера - переносим записи по одной
+                long[] keys = new long[entries];
+                long[] data = new long[entries];
+                readLongs(channel, buffer, keys);
+                readLongs(channel, buffer, data);
+                for (int i = 0; i < entries; i++) {
+                    if (data[i] == 0) continue;
+                    table.store(keys[i], TranspositionTable.move(data[i]), TranspositionTable.score(data[i]),
+                            TranspositionTable.depth(data[i]), TranspositionTable.flag(data[i]));
+                }
+            }
+
+            ChessEngine.RootMoveStats rootMoves = new ChessEngine.RootMoveStats(depth, count, moves, scores, nodes);
+            return new AnalysisCheckpoint(new String(fenBytes, StandardCharsets.UTF_8), rootMoves, totalNodes, elapsedMs);
+        }
+    }
+
+    // Запись массива с текущей позиции канала
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int length = Math.min(buffer.capacity() / 8, values.length - from);
+            buffer.clear();
+            buffer.asLongBuffer().put(values, from, length);
+            buffer.limit(length * 8);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            from += length;
+        }
+    }
+
+    // Чтение массива с текущей позиции канала
+    private static void readLongs(FileChannel channel, ByteBuffer buffer, long[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int length = Math.min(buffer.capacity() / 8, values.length - from);
+            buffer.clear().limit(length * 8);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new EOFException("Контрольная точка обрезана");
+            }
+            buffer.flip();
+            buffer.asLongBuffer().get(values, from, length);
+            from += length;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Пакетный анализ позиций без окна: на входе поток FEN (по одной позиции в строке),
+// на выходе для каждой позиции - статус (шах, мат, пат), список легальных ходов и, по желанию,
+// результат поиска на фиксированную глубину.
+//
+// Позиции разбираются в ForkJoinPool (work-stealing). У каждого рабочего потока свои объекты позиции
+// и движка, которые переиспользуются между позициями, поэтому общая доска нигде не изменяется.
+// Повторяющиеся позиции берутся из общего кэша вне кучи (PositionCache).
+// Результаты пишутся в порядке входа; очередь ограниченного размера не дает читателю убежать
+// далеко вперед писателя (обратное давление).
+//
+// Формат выходной строки (через табуляцию):
+//   FEN  статус  ходы_через_пробел  [лучший_ход  оценка  глубина]
+public class BatchAnalyzer {
+    static final String NORMAL = "normal", CHECK = "check", CHECKMATE = "checkmate", STALEMATE = "stalemate";
+
+    // Названия статусов в порядке кодов PositionCache
+    private static final String[] STATUS_NAMES = {NORMAL, CHECK, CHECKMATE, STALEMATE};
+
+    private final ForkJoinPool pool;
+    private final int queueCapacity;    // Сколько позиций может быть в работе одновременно
+    private final PositionCache cache;  // Общий кэш повторяющихся позиций (null - без кэша)
+
+    // Объекты одного рабочего потока
+    private final ThreadLocal<Worker> workers;
+
+    private static final class Worker {
+        final ChessPosition position = new ChessPosition();
+        final int[] moves = new int[ChessPosition.MAX_MOVES];
+        final StringBuilder line = new StringBuilder(256);
+        final ChessEngine engine;
+
+        Worker(int searchDepth) {
+            if (searchDepth > 0) {
+                ChessEngine.Config config = new ChessEngine.Config("batch", searchDepth, 0);
+                config.ttSizeMb = 4;
+                engine = new ChessEngine(config);
+            } else {
+                engine = null;
+            }
+        }
+    }
+
+    // searchDepth = 0 - без поиска, cacheSizeMb = 0 - без кэша позиций
+    public BatchAnalyzer(int threads, int searchDepth, int queueCapacity, int cacheSizeMb) {
+        this.pool = new ForkJoinPool(threads);
+        this.queueCapacity = queueCapacity;
+        this.cache = cacheSizeMb > 0 ? new PositionCache(cacheSizeMb) : null;
+        this.workers = ThreadLocal.withInitial(() -> new Worker(searchDepth));
+    }
+
+    // Анализ всего потока; возвращает количество обработанных позиций
+    long analyze(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        BlockingQueue<CompletableFuture<String>> pending = new ArrayBlockingQueue<>(queueCapacity);
+        CompletableFuture<String> endOfInput = CompletableFuture.completedFuture(null);
+
+        // Писатель: забирает результаты строго по порядку и ждет, пока очередной будет готов
+        long[] written = new long[1];
+        AtomicReference<IOException> writeError = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    CompletableFuture<String> future = pending.take();
+                    if (future == endOfInput) break;
+                    String result = future.join();
+                    if (writeError.get() != null) continue;  // После ошибки записи только освобождаем очередь
+                    try {
+                        out.write(result);
+                        out.write('\n');
+                        written[0]++;
+                    } catch (IOException e) {
+                        writeError.set(e);
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                writeError.compareAndSet(null, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "batch-writer");
+        writer.start();
+
+        // Читатель: put блокируется, если писатель отстает на queueCapacity позиций
+        try {
+            String fen;
+            while ((fen = in.readLine()) != null && writeError.get() == null) {
+                if (fen.isBlank()) continue;
+                String input = fen.trim();
+                pending.put(CompletableFuture.supplyAsync(() -> analyzeLine(input), pool)
+                        .exceptionally(e -> errorLine(input, e)));
+            }
+        } finally {
+            pending.put(endOfInput);
+            writer.join();
+        }
+
+        if (writeError.get() != null) throw writeError.get();
+        return written[0];
+    }
+
+    // Анализ одной позиции в рабочем потоке
+    private String analyzeLine(String fen) {
+        Worker worker = workers.get();
+        StringBuilder line = worker.line;
+        line.setLength(0);
+        line.append(fen).append('\t');
+
+        ChessPosition position = worker.position;
+        try {
+            position.setFen(fen);
+        } catch (RuntimeException e) {
+            return line.append("error\t").append(e.getMessage()).toString();
+        }
+
+        // Сначала смотрим в кэш, и только при промахе генерируем ходы
+        int count, status;
+        int cached = cache != null ? cache.lookup(position.key, worker.moves) : -1;
+        if (cached >= 0) {
+            count = PositionCache.count(cached);
+            status = PositionCache.status(cached);
+        } else {
+            count = position.generateLegalMoves(worker.moves);
+            boolean inCheck = position.isInCheck(position.sideToMove());
+            status = count == 0
+                    ? (inCheck ? PositionCache.CHECKMATE : PositionCache.STALEMATE)
+                    : (inCheck ? PositionCache.CHECK : PositionCache.NORMAL);
+            if (cache != null) cache.store(position.key, status, worker.moves, count);
+        }
+        line.append(STATUS_NAMES[status]).append('\t');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) line.append(' ');
+            line.append(ChessPosition.moveToString(worker.moves[i]));
+        }
+
+        if (worker.engine != null && count > 0) {
+            // Таблица транспозиций очищается для каждой позиции: какие позиции достанутся одному рабочему
+            // потоку, решает work-stealing, а результат поиска не должен зависеть от предыдущих позиций
+            if (worker.engine.transpositionTable != null) worker.engine.transpositionTable.clear();
+            ChessEngine.SearchResult result = worker.engine.search(position);
+            line.append('\t').append(ChessPosition.moveToString(result.bestMove))
+                    .append('\t').append(result.score)
+                    .append('\t').append(result.depth);
+        }
+        return line.toString();
+    }
+
+    // Строка результата для непредвиденной ошибки: те же столбцы FEN и статус, что и у остальных строк
+    private static String errorLine(String fen, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return fen + "\terror\t" + cause;
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    PositionCache cache() {
+        return cache;
+    }
+
+    // Пример запуска:
+    //   java BatchAnalyzer [потоков] [глубина_поиска] [кэш_МБ] < positions.fen > result.tsv
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        int cacheMb = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(threads, depth, threads * 64, cacheMb);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long start = System.nanoTime();
+        long count;
+        try {
+            count = analyzer.analyze(in, out);
+        } finally {
+            analyzer.shutdown();
+        }
+        System.err.printf("Позиций: %d за %.1f с%n", count, (System.nanoTime() - start) / 1e9);
+        if (analyzer.cache() != null) {
+            System.err.println(analyzer.cache().summary());
+        }
+    }
+}
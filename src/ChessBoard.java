@@ -5,7 +5,6 @@ import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Stack;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
@@ -16,12 +15,18 @@ public class ChessBoard extends JPanel {
     private boolean whiteTurn = true;    // Очередность хода (true - белые, false - черные)
     private final List<Position> availableMoves = new ArrayList<>(); // Список доступных ходов
     private final List<Position> attackMoves = new ArrayList<>(); // Список возможных атак
-    private final Stack<Move> moveHistory; // Список для хранения истории ходов
+    private final GameTree gameTree;     // Дерево партии (история ходов с вариантами)
     private boolean isKingInCheck;
     private Position checkedKingPosition;
     private Timer blinkTimer;
     private boolean isBlinkOn;
 
+    // Игра против компьютера (компьютер играет черными и думает на времени человека)
+    private boolean engineEnabled;
+    private boolean engineThinking;
+    private Ponderer ponderer;
+    private boolean windowListenerAdded;
+
     public ChessBoard() {
         // Устанавливаем компоновку для размещения компонентов
         setLayout(new BorderLayout());
@@ -39,42 +44,66 @@ public class ChessBoard extends JPanel {
         JButton undoButton = new JButton("Отменить ход");
         undoButton.addActionListener(_ -> undoLastMove());
         controlPanel.add(undoButton);
+        JButton redoButton = new JButton("Вернуть ход");
+        redoButton.addActionListener(_ -> redoMove());
+        controlPanel.add(redoButton);
+        JButton variationButton = new JButton("Другой вариант");
+        variationButton.addActionListener(_ -> nextVariation());
+        controlPanel.add(variationButton);
+        JButton variationsButton = new JButton("Все варианты...");
+        variationsButton.addActionListener(_ -> chooseVariation());
+        controlPanel.add(variationsButton);
+        JCheckBox engineCheckBox = new JCheckBox("Компьютер за черных");
+        engineCheckBox.addActionListener(_ -> setEngineEnabled(engineCheckBox.isSelected()));
+        controlPanel.add(engineCheckBox);
 
         // Добавляем компоненты на главную панель
         add(boardPanel, BorderLayout.CENTER);
         add(controlPanel, BorderLayout.SOUTH);
 
-        // Инициализируем доску и историю ходов
+        // Инициализируем доску
         board = new ChessPiece[8][8];
-        moveHistory = new Stack<>();
 
         // Настраиваем таймер для моргания
         setupBlinkTimer();
 
-        // Добавляем слушатель закрытия окна
-        Frame frame = (Frame) SwingUtilities.getWindowAncestor(this);
-        if (frame != null) {
-            frame.addWindowListener(new WindowAdapter() {
-                @Override
-                public void windowClosing(WindowEvent e) {
-                    if (blinkTimer != null && blinkTimer.isRunning()) {
-                        blinkTimer.stop();
-                    }
-                }
-            });
-        }
-
-        // Расставляем фигуры
+        // Расставляем фигуры и начинаем дерево партии с начальной позиции
         initializeBoard();
+        gameTree = new GameTree(board, whiteTurn);
+    }
+
+    // Слушатель закрытия окна добавляется, когда панель уже помещена в окно
+    // (в конструкторе окна у панели еще нет)
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        Window window = SwingUtilities.getWindowAncestor(this);
+        if (window == null || windowListenerAdded) return;
+        windowListenerAdded = true;
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (blinkTimer != null && blinkTimer.isRunning()) {
+                    blinkTimer.stop();
+                }
+                // Пока компьютер ищет ход, Ponderer занят в потоке SwingWorker - его потоки демоны и завершатся сами
+                if (ponderer != null && !engineThinking) {
+                    ponderer.shutdown();
+                }
+            }
+        });
     }
 
     private JPanel getjPanel() {
         JPanel boardPanel = new JPanel() {
             @Override
             protected void paintComponent(Graphics g) {
+                ChessEvents.BoardRepaint repaintEvent = new ChessEvents.BoardRepaint();
+                repaintEvent.begin();
                 super.paintComponent(g);
                 drawBoard(g);
                 drawPieces(g);
+                repaintEvent.commit();
             }
         };
         boardPanel.setPreferredSize(new Dimension(640, 640));
@@ -126,6 +155,9 @@ public class ChessBoard extends JPanel {
 
     // Обработка кликов мыши и ходов
     private void handleMouseClick(int x, int y) {
+        // Пока компьютер выбирает ход, доска не реагирует на клики
+        if (engineThinking) return;
+
         int row = y / 80;
         int col = x / 80;
 
@@ -149,62 +181,152 @@ public class ChessBoard extends JPanel {
                 return;
             }
 
-            // Если ход разрешен, выполняем его
-            Move move = new Move(selectedX, selectedY, row, col,
-                    selectedPiece, board[row][col],
-                    selectedPiece.hasMoved);
+            // Фигуру для превращения выбираем до начала замера: время в диалоге не входит в выполнение хода
+            boolean isPromotion = selectedPiece instanceof Pawn && (row == 0 || row == 7);
+            int promotion = isPromotion ? choosePromotion() : ChessPosition.PROMO_NONE;
 
+            // Если ход разрешен, выполняем его
+            ChessEvents.MoveApplied moveEvent = new ChessEvents.MoveApplied();
+            moveEvent.begin();
             if (selectedPiece instanceof King && Math.abs(col - selectedY) == 2) {
                 if (canCastle(selectedX, selectedY, row, col)) {
                     handleCastling(row, col);
-                    moveHistory.push(move);
                 }
-            } else if (selectedPiece instanceof Pawn && (row == 0 || row == 7)) {
-                promotePawn(row, col);
-                moveHistory.push(move);
+            } else if (isPromotion) {
+                promotePawn(row, col, promotion);
             } else {
                 board[row][col] = selectedPiece;
                 board[selectedX][selectedY] = null;
                 selectedPiece.hasMoved = true;
-                moveHistory.push(move);
             }
 
-            // Проверки на шах, мат и пат
-            if (isInCheck(!whiteTurn ? Color.WHITE : Color.BLACK)) {
-                isKingInCheck = true;
-                checkedKingPosition = findKingPosition(!whiteTurn ? Color.WHITE : Color.BLACK);
-                blinkTimer.start();
-                if (isCheckmate(!whiteTurn ? Color.WHITE : Color.BLACK)) {
-                    JOptionPane.showMessageDialog(this,
-                            "Шах и Мат! " + (whiteTurn ? "Белые" : "Черные") + " победили!");
-                    blinkTimer.stop();
-                } else {
-                    JOptionPane.showMessageDialog(this, "Шах!");
-                }
-            } else if (isStalemate(!whiteTurn ? Color.WHITE : Color.BLACK)) {
-                JOptionPane.showMessageDialog(this, "Пат! Ничья!");
+            // Записываем ход в дерево партии (позиция после хода, ходят уже другие)
+            int move = ChessPosition.encodeMove(selectedX, selectedY, row, col, promotion);
+            gameTree.play(move, board, !whiteTurn);
+            if (moveEvent.shouldCommit()) {
+                moveEvent.move = ChessPosition.moveToString(move);
+                moveEvent.white = whiteTurn;
+                moveEvent.commit();
+            }
+
+            finishMove();
+
+            // Ход компьютера
+            if (engineEnabled && !whiteTurn) {
+                startEngineMove(move);
+            }
+        }
+        repaint();
+    }
+
+    // Проверки на шах, мат и пат после хода и передача очереди хода
+    private void finishMove() {
+        if (isInCheck(!whiteTurn ? Color.WHITE : Color.BLACK)) {
+            isKingInCheck = true;
+            checkedKingPosition = findKingPosition(!whiteTurn ? Color.WHITE : Color.BLACK);
+            blinkTimer.start();
+            ChessEvents.GameEndCheck mateCheck = ChessEvents.GameEndCheck.begin(ChessEvents.GameEndCheck.CHECKMATE);
+            boolean isMate = isCheckmate(!whiteTurn ? Color.WHITE : Color.BLACK);
+            mateCheck.end(isMate);
+            if (isMate) {
+                JOptionPane.showMessageDialog(this,
+                        "Шах и Мат! " + (whiteTurn ? "Белые" : "Черные") + " победили!");
                 blinkTimer.stop();
-                isKingInCheck = false;
             } else {
-                isKingInCheck = false;
-                blinkTimer.stop();
+                JOptionPane.showMessageDialog(this, "Шах!");
+            }
+        } else if (isStalemateTimed(!whiteTurn ? Color.WHITE : Color.BLACK)) {
+            JOptionPane.showMessageDialog(this, "Пат! Ничья!");
+            blinkTimer.stop();
+            isKingInCheck = false;
+        } else {
+            isKingInCheck = false;
+            blinkTimer.stop();
+        }
+
+        // Повторение позиции определяется по ключам Зобриста в узлах дерева партии
+        if (gameTree.current().repetitions() >= 2) {
+            JOptionPane.showMessageDialog(this, "Троекратное повторение позиции! Ничья!");
+        }
+
+        whiteTurn = !whiteTurn;
+        selectedPiece = null;
+        availableMoves.clear();
+        attackMoves.clear();
+    }
+
+    // Включение и выключение игры против компьютера
+    private void setEngineEnabled(boolean enabled) {
+        engineEnabled = enabled;
+        if (enabled && ponderer == null) {
+            ponderer = new Ponderer(new ChessEngine(new ChessEngine.Config("GUI", 5, 2000)));
+        }
+        // Во время хода компьютера Ponderer работает в потоке SwingWorker и трогать его отсюда нельзя;
+        // результат того хода отбросит done(), так как engineEnabled уже false
+        if (!enabled && ponderer != null && !engineThinking) {
+            ponderer.stop();
+        }
+        // Если сейчас ход черных, компьютер ходит сразу
+        if (enabled && !whiteTurn && !engineThinking) {
+            startEngineMove(0);
+        }
+    }
+
+    // Поиск хода компьютера в фоновом потоке; opponentMove - последний ход человека (для pondering)
+    private void startEngineMove(int opponentMove) {
+        ChessPosition position = ChessPosition.fromBoard(board, whiteTurn);
+        GameTree.Node node = gameTree.current();
+        engineThinking = true;
+
+        new SwingWorker<ChessEngine.SearchResult, Void>() {
+            @Override
+            protected ChessEngine.SearchResult doInBackground() {
+                return ponderer.resolve(position, opponentMove);
             }
 
-            whiteTurn = !whiteTurn;
-            selectedPiece = null;
-            availableMoves.clear();
-            attackMoves.clear();
+            @Override
+            protected void done() {
+                engineThinking = false;
+                ChessEngine.SearchResult result;
+                try {
+                    result = get();
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(ChessBoard.this, "Ошибка компьютера: " + e.getMessage());
+                    return;
+                }
+                // Пока компьютер думал, позиция могла смениться (например, отменой хода)
+                if (result.bestMove != 0 && engineEnabled && gameTree.current() == node) {
+                    applyEngineMove(position, result);
+                }
+            }
+        }.execute();
+    }
+
+    // Выполнение хода компьютера на доске окна
+    private void applyEngineMove(ChessPosition position, ChessEngine.SearchResult result) {
+        position.makeMove(result.bestMove);
+
+        // Пока человек думает, компьютер ищет ответ на ожидаемый ход (копия позиции делается внутри)
+        ponderer.start(position, result.pv);
+
+        for (int row = 0; row < 8; row++) {
+            System.arraycopy(position.board[row], 0, board[row], 0, 8);
         }
+        gameTree.play(result.bestMove, board, !whiteTurn);
+        repaint();
+        finishMove();
         repaint();
     }
 
     // Расчет возможных ходов для выбранной фигуры
     private void calculateAvailableMoves(int startX, int startY) {
+        long startTime = ChessMetrics.ENABLED ? System.nanoTime() : 0;
         availableMoves.clear();
         attackMoves.clear();
 
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
+                if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
                 if (selectedPiece.isValidMove(startX, startY, row, col, board)) {
                     // Специальная проверка для рокировки
                     if (selectedPiece instanceof King && Math.abs(col - startY) == 2) {
@@ -233,6 +355,7 @@ public class ChessBoard extends JPanel {
                 }
             }
         }
+        if (ChessMetrics.ENABLED) ChessMetrics.MOVE_VALIDATION.record(System.nanoTime() - startTime);
     }
 
     // Метод для проверки, спасает ли ход от шаха:
@@ -340,13 +463,24 @@ public class ChessBoard extends JPanel {
         return true;
     }
 
+    // Клетка под ударом; правила те же, что в ChessPosition.isSquareUnderAttack
     private boolean isSquareUnderAttack(int row, int col, Color attackerColor) {
         for (int i = 0; i < 8; i++) {
             for (int j = 0; j < 8; j++) {
                 ChessPiece piece = board[i][j];
                 if (piece != null && piece.color == attackerColor) {
-                    if (piece.isValidMove(i, j, row, col, board)) {
-                        return true;
+                    if (piece instanceof King) {
+                        // Рокировка не является атакой
+                        if (Math.abs(i - row) <= 1 && Math.abs(j - col) <= 1 && (i != row || j != col)) return true;
+                    } else if (piece instanceof Pawn) {
+                        // Пешка бьет только по диагонали, в том числе пустые клетки; ход вперед - не атака
+                        int direction = piece.color == Color.WHITE ? -1 : 1;
+                        if (row == i + direction && Math.abs(col - j) == 1) return true;
+                    } else {
+                        if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
+                        if (piece.isValidMove(i, j, row, col, board)) {
+                            return true;
+                        }
                     }
                 }
             }
@@ -354,18 +488,23 @@ public class ChessBoard extends JPanel {
         return false;
     }
 
-    // Превращение пешки
-    private void promotePawn(int row, int col) {
+    // Выбор фигуры для превращения; возвращает код фигуры для записи хода (PROMO_NONE, если диалог закрыт)
+    private int choosePromotion() {
         String[] options = {"Ферзь", "Ладья", "Слон", "Конь"};
         int choice = JOptionPane.showOptionDialog(this, "Выберите фигуру для превращения:", "Превращение пешки",
                 JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[0]);
-        if (choice != JOptionPane.CLOSED_OPTION) {
+        return choice != JOptionPane.CLOSED_OPTION ? choice + ChessPosition.PROMO_QUEEN : ChessPosition.PROMO_NONE;
+    }
+
+    // Превращение пешки в выбранную фигуру
+    private void promotePawn(int row, int col, int promotion) {
+        if (promotion != ChessPosition.PROMO_NONE) {
             ChessPiece newPiece = null;
-            switch (choice) {
-                case 0 -> newPiece = new Queen(selectedPiece.color);
-                case 1 -> newPiece = new Rook(selectedPiece.color);
-                case 2 -> newPiece = new Bishop(selectedPiece.color);
-                case 3 -> newPiece = new Horse(selectedPiece.color);
+            switch (promotion) {
+                case ChessPosition.PROMO_QUEEN -> newPiece = new Queen(selectedPiece.color);
+                case ChessPosition.PROMO_ROOK -> newPiece = new Rook(selectedPiece.color);
+                case ChessPosition.PROMO_BISHOP -> newPiece = new Bishop(selectedPiece.color);
+                case ChessPosition.PROMO_HORSE -> newPiece = new Horse(selectedPiece.color);
             }
             board[row][col] = newPiece;  // Устанавливаем новую фигуру
             board[selectedX][selectedY] = null;  // Убираем пешку с начальной позиции
@@ -433,6 +572,7 @@ public class ChessBoard extends JPanel {
 
     // Метод для проверки, находится ли игрок под шахом
     private boolean isInCheck(Color color) {
+        if (ChessMetrics.ENABLED) ChessMetrics.IN_CHECK_CALLS.increment();
         Position kingPosition = findKingPosition(color);
         if (kingPosition == null) return false;
 
@@ -442,6 +582,7 @@ public class ChessBoard extends JPanel {
             for (int col = 0; col < 8; col++) {
                 ChessPiece piece = board[row][col];
                 if (piece != null && piece.color == opponentColor) {
+                    if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
                     if (piece.isValidMove(row, col, kingPosition.row, kingPosition.col, board)) {
                         return true;
                     }
@@ -463,8 +604,18 @@ public class ChessBoard extends JPanel {
         return null;
     }
 
+    // Проверка на пат с записью события JFR
+    private boolean isStalemateTimed(Color color) {
+        ChessEvents.GameEndCheck stalemateCheck = ChessEvents.GameEndCheck.begin(ChessEvents.GameEndCheck.STALEMATE);
+        boolean result = isStalemate(color);
+        stalemateCheck.end(result);
+        return result;
+    }
+
     // Метод для проверки, является ли текущая позиция пат
     private boolean isStalemate(Color color) {
+        if (ChessMetrics.ENABLED) ChessMetrics.STALEMATE_CALLS.increment();
+
         // Если король под шахом, это не пат
         if (isInCheck(color)) {
             return false;
@@ -499,6 +650,8 @@ public class ChessBoard extends JPanel {
 
     // Метод для проверки, является ли текущая позиция мата
     private boolean isCheckmate(Color color) {
+        if (ChessMetrics.ENABLED) ChessMetrics.CHECKMATE_CALLS.increment();
+
         // Проверяем наличие шаха
         if (!isInCheck(color)) return false;
 
@@ -515,6 +668,7 @@ public class ChessBoard extends JPanel {
                 int newCol = kingPosition.col + dy;
 
                 if (newRow >= 0 && newRow < 8 && newCol >= 0 && newCol < 8) {
+                    if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
                     if (king.isValidMove(kingPosition.row, kingPosition.col, newRow, newCol, board) &&
                             moveResolvesCheck(kingPosition.row, kingPosition.col, newRow, newCol)) {
                         return false;
@@ -530,6 +684,7 @@ public class ChessBoard extends JPanel {
                 if (piece != null && piece.color == color && !(piece instanceof King)) {
                     for (int endX = 0; endX < 8; endX++) {
                         for (int endY = 0; endY < 8; endY++) {
+                            if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
                             if (piece.isValidMove(row, col, endX, endY, board) &&
                                     moveResolvesCheck(row, col, endX, endY)) {
                                 return false;
@@ -566,54 +721,85 @@ public class ChessBoard extends JPanel {
         }
     }
 
-    // Класс для хранения информации о ходе
-    private static class Move {
-        int startX, startY, endX, endY;
-        ChessPiece movedPiece;
-        ChessPiece capturedPiece;
-        boolean wasFirstMove;  // для пешек, короля и ладьи
+    // Отмена хода: переход к предыдущему узлу дерева партии (позиция берется из снимка, ходы не переигрываются)
+    private void undoLastMove() {
+        if (engineThinking) return;
+        GameTree.Node node = gameTree.undo();
+        if (node != null) {
+            showNode(node);
+        }
+    }
 
-        Move(int startX, int startY, int endX, int endY,
-             ChessPiece movedPiece, ChessPiece capturedPiece, boolean wasFirstMove) {
-            this.startX = startX;
-            this.startY = startY;
-            this.endX = endX;
-            this.endY = endY;
-            this.movedPiece = movedPiece;
-            this.capturedPiece = capturedPiece;
-            this.wasFirstMove = wasFirstMove;
+    // Возврат отмененного хода
+    private void redoMove() {
+        if (engineThinking) return;
+        GameTree.Node node = gameTree.redo();
+        if (node != null) {
+            showNode(node);
         }
     }
 
-    // Класс для отмены хода
-    private void undoLastMove() {
-        if (!moveHistory.isEmpty()) {
-            Move lastMove = moveHistory.pop();
-
-            // Возвращаем фигуру на исходную позицию
-            board[lastMove.startX][lastMove.startY] = lastMove.movedPiece;
-            board[lastMove.endX][lastMove.endY] = lastMove.capturedPiece;
-
-            // Восстанавливаем состояние первого хода
-            if (lastMove.movedPiece instanceof King ||
-                    lastMove.movedPiece instanceof Rook ||
-                    lastMove.movedPiece instanceof Pawn) {
-                lastMove.movedPiece.hasMoved = lastMove.wasFirstMove;
-            }
+    // Переход к другому варианту на текущем ходу
+    private void nextVariation() {
+        if (engineThinking) return;
+        GameTree.Node node = gameTree.nextVariation();
+        if (node != null) {
+            showNode(node);
+        }
+    }
 
-            // Сбрасываем состояние моргания
-            isKingInCheck = false;
-            checkedKingPosition = null;
-            if (blinkTimer.isRunning()) {
-                blinkTimer.stop();
+    // Переход к концу любого варианта из дерева партии
+    private void chooseVariation() {
+        if (engineThinking) return;
+        List<GameTree.Node> variations = gameTree.variations();
+        String[] names = new String[variations.size()];
+        for (int i = 0; i < names.length; i++) {
+            StringBuilder name = new StringBuilder();
+            List<Integer> moves = variations.get(i).moves();
+            for (int j = 0; j < moves.size(); j++) {
+                if (j % 2 == 0) name.append(j / 2 + 1).append(". ");
+                name.append(ChessPosition.moveToString(moves.get(j))).append(' ');
+            }
+            names[i] = moves.isEmpty() ? "Начальная позиция" : name.toString().trim();
+        }
+        Object choice = JOptionPane.showInputDialog(this, "Выберите вариант:", "Варианты партии",
+                JOptionPane.PLAIN_MESSAGE, null, names, names[0]);
+        if (choice == null) return;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(choice)) {
+                showNode(gameTree.goTo(variations.get(i)));
+                return;
             }
+        }
+    }
 
-            // Меняем очередь хода
-            whiteTurn = !whiteTurn;
+    // Отображение позиции из узла дерева партии
+    private void showNode(GameTree.Node node) {
+        // Обдумывание относилось к другой позиции
+        if (ponderer != null) {
+            ponderer.stop();
+        }
 
-            // Обновляем отображение
-            repaint();
+        node.restore(board);
+        whiteTurn = node.whiteTurn;
+
+        // Сбрасываем выбор фигуры
+        selectedPiece = null;
+        availableMoves.clear();
+        attackMoves.clear();
+
+        // Восстанавливаем состояние моргания для позиции узла
+        Color color = whiteTurn ? Color.WHITE : Color.BLACK;
+        isKingInCheck = isInCheck(color);
+        checkedKingPosition = isKingInCheck ? findKingPosition(color) : null;
+        if (isKingInCheck) {
+            blinkTimer.start();
+        } else if (blinkTimer.isRunning()) {
+            blinkTimer.stop();
         }
+
+        // Обновляем отображение
+        repaint();
     }
 
     // Абстрактный класс фигуры (базовый класс для всех фигур)
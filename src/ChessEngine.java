@@ -0,0 +1,490 @@
+import java.awt.Color;
+import java.util.Arrays;
+
+// Простой движок: альфа-бета поиск с итеративным углублением поверх правил ChessPosition.
+// Один экземпляр движка в каждый момент ведет только один поиск (см. Ponderer для поиска в фоне).
+public class ChessEngine {
+    static final int INFINITY = 32000;
+    static final int MATE = 30000;
+    static final int MAX_DEPTH = 64;
+
+    // Ценность фигур в порядке "pnbrqk"
+    private static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+
+    // Настройки движка (две разные конфигурации можно сравнить в SelfPlayTournament)
+    static class Config {
+        String name;
+        int maxDepth;                   // Максимальная глубина поиска
+        long moveTimeMs;                // Время на ход (0 - без ограничения)
+        int ttSizeMb;                   // Размер таблицы транспозиций
+        boolean useTranspositionTable;  // Использовать таблицу транспозиций
+        boolean orderMoves;             // Сортировать ходы (ход из таблицы, затем взятия)
+        boolean ponder;                 // Думать на времени соперника (см. Ponderer)
+
+        Config(String name, int maxDepth, long moveTimeMs) {
+            this.name = name;
+            this.maxDepth = maxDepth;
+            this.moveTimeMs = moveTimeMs;
+            this.ttSizeMb = 16;
+            this.useTranspositionTable = true;
+            this.orderMoves = true;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (глубина " + maxDepth + ", " + moveTimeMs + " мс/ход, TT "
+                    + (useTranspositionTable ? ttSizeMb + " МБ" : "выкл") + ", сортировка "
+                    + (orderMoves ? "вкл" : "выкл") + (ponder ? ", ponder" : "") + ")";
+        }
+    }
+
+    // Результат поиска
+    static class SearchResult {
+        int bestMove;
+        int score;
+        int depth;
+        long nodes;
+        long timeNanos;
+        int[] pv = new int[0];
+    }
+
+    // Ходы в корне после завершенной итерации: лучший ход первый, для остальных оценка - верхняя граница
+    static class RootMoveStats {
+        final int depth;
+        final int count;
+        final int[] moves;
+        final int[] scores;
+        final long[] nodes;  // Узлов, потраченных на ход в последней итерации
+
+        RootMoveStats(int depth, int count, int[] moves, int[] scores, long[] nodes) {
+            this.depth = depth;
+            this.count = count;
+            this.moves = Arrays.copyOf(moves, count);
+            this.scores = Arrays.copyOf(scores, count);
+            this.nodes = Arrays.copyOf(nodes, count);
+        }
+    }
+
+    // Периодический вызов из потока поиска (поиск на это время приостановлен, поэтому состояние
+    // движка и таблица транспозиций согласованы)
+    interface ProgressListener {
+        void onProgress(ChessEngine engine, boolean iterationFinished);
+    }
+
+    final Config config;
+    final TranspositionTable transpositionTable;
+
+    private volatile boolean stopped;
+    private volatile long deadline;
+    private long nodes;
+
+    // Состояние для долгого анализа
+    private volatile RootMoveStats rootMoveStats;
+    private final int[] rootScores = new int[ChessPosition.MAX_MOVES];
+    private final long[] rootNodes = new long[ChessPosition.MAX_MOVES];
+    private ProgressListener progressListener;
+    private long progressIntervalNanos;
+    private volatile long nextProgress = Long.MAX_VALUE;
+    private long listenerNanos;  // Время слушателя внутри текущей итерации (не входит в замер итерации)
+
+    // Счетчики для ChessMetrics: копятся в полях и сбрасываются в общие счетчики один раз за поиск
+    private long ttProbes, ttHits, cutoffs, firstMoveCutoffs;
+
+    // Буферы ходов и их оценок для каждого уровня поиска
+    private final int[][] moveBuffers = new int[MAX_DEPTH + 1][ChessPosition.MAX_MOVES];
+    private final int[][] orderBuffers = new int[MAX_DEPTH + 1][ChessPosition.MAX_MOVES];
+
+    public ChessEngine(Config config) {
+        this.config = config;
+        this.transpositionTable = config.useTranspositionTable ? new TranspositionTable(config.ttSizeMb) : null;
+    }
+
+    // Остановка поиска из другого потока
+    void stop() {
+        stopped = true;
+    }
+
+    // Подготовка к обдумыванию на времени соперника: вызывается до запуска ponder() в другом потоке,
+    // чтобы stop() и ponderHit() не могли потеряться, если поиск еще не начался
+    void preparePonder() {
+        stopped = false;
+        deadline = Long.MAX_VALUE;
+    }
+
+    // Соперник сделал ожидаемый ход: обдумывание становится настоящим поиском с обычным лимитом времени
+    void ponderHit() {
+        deadline = config.moveTimeMs > 0 ? System.nanoTime() + config.moveTimeMs * 1_000_000L : Long.MAX_VALUE;
+    }
+
+    // Слушатель прогресса вызывается не чаще, чем раз в intervalMs, и после каждой итерации
+    void setProgressListener(ProgressListener listener, long intervalMs) {
+        progressListener = listener;
+        progressIntervalNanos = intervalMs * 1_000_000L;
+        nextProgress = System.nanoTime() + progressIntervalNanos;
+    }
+
+    // Просьба вызвать слушателя как можно скорее (например, перед завершением процесса)
+    void requestProgress() {
+        nextProgress = 0;
+    }
+
+    // Ходы в корне после последней завершенной итерации (null, если итераций еще не было)
+    RootMoveStats rootMoveStats() {
+        return rootMoveStats;
+    }
+
+    // Узлы текущего поиска
+    long nodes() {
+        return nodes;
+    }
+
+    // Поиск лучшего хода; позиция после поиска остается в исходном состоянии
+    SearchResult search(ChessPosition position) {
+        stopped = false;
+        deadline = config.moveTimeMs > 0 ? System.nanoTime() + config.moveTimeMs * 1_000_000L : Long.MAX_VALUE;
+        return runSearch(position, null);
+    }
+
+    // Поиск без ограничения времени до stop() или ponderHit() (после preparePonder)
+    SearchResult ponder(ChessPosition position) {
+        return runSearch(position, null);
+    }
+
+    // Продолжение прерванного поиска: итерации начинаются с глубины previous.depth + 1,
+    // ходы в корне просматриваются в сохраненном порядке (таблица транспозиций должна быть уже загружена)
+    SearchResult resume(ChessPosition position, RootMoveStats previous) {
+        stopped = false;
+        deadline = config.moveTimeMs > 0 ? System.nanoTime() + config.moveTimeMs * 1_000_000L : Long.MAX_VALUE;
+        return runSearch(position, previous);
+    }
+
+    private SearchResult runSearch(ChessPosition position, RootMoveStats previous) {
+        long startTime = System.nanoTime();
+        long allocatedBefore = ChessMetrics.ENABLED ? ChessMetrics.allocatedBytes() : 0;
+        nodes = 0;
+        rootMoveStats = previous;
+
+        SearchResult result = new SearchResult();
+        int[] rootMoves = new int[ChessPosition.MAX_MOVES];
+        int rootCount = position.generateLegalMoves(rootMoves);
+        if (rootCount == 0) {
+            result.timeNanos = System.nanoTime() - startTime;
+            return result;
+        }
+
+        // Таблица транспозиций не очищается между ходами: лучший ход из прошлого поиска
+        // (главный вариант) в корне просматривается первым
+        if (transpositionTable != null) {
+            long entry = transpositionTable.probe(position.key);
+            if (entry != 0) moveToFront(rootMoves, rootCount, TranspositionTable.move(entry));
+        }
+        int firstDepth = 1;
+        if (previous != null) {
+            for (int i = previous.count - 1; i >= 0; i--) {
+                moveToFront(rootMoves, rootCount, previous.moves[i]);
+            }
+            firstDepth = previous.depth + 1;
+            result.depth = previous.depth;
+            result.score = previous.count > 0 ? previous.scores[0] : 0;
+        }
+        result.bestMove = rootMoves[0];
+
+        for (int depth = firstDepth; depth <= Math.min(config.maxDepth, MAX_DEPTH); depth++) {
+            long iterationStart = ChessMetrics.ENABLED ? System.nanoTime() : 0;
+            ChessEvents.SearchIteration iterationEvent = new ChessEvents.SearchIteration();
+            iterationEvent.begin();
+            listenerNanos = 0;
+            int score = searchRoot(position, depth, rootMoves, rootCount);
+            if (ChessMetrics.ENABLED) {
+                ChessMetrics.SEARCH_ITERATION.record(System.nanoTime() - iterationStart - listenerNanos);
+            }
+            if (stopped) break;
+
+            result.bestMove = rootMoves[0];
+            result.score = score;
+            result.depth = depth;
+            rootMoveStats = new RootMoveStats(depth, rootCount, rootMoves, rootScores, rootNodes);
+
+            if (iterationEvent.shouldCommit()) {
+                iterationEvent.depth = depth;
+                iterationEvent.nodes = nodes;
+                iterationEvent.bestMove = ChessPosition.moveToString(rootMoves[0]);
+                iterationEvent.score = score;
+                iterationEvent.listenerTime = listenerNanos;
+                iterationEvent.commit();
+            }
+            // Слушатель (вывод, контрольная точка) вызывается после замера итерации
+            if (progressListener != null) progressListener.onProgress(this, true);
+
+            // Найден мат - дальше искать нет смысла
+            if (Math.abs(score) >= MATE - MAX_DEPTH) break;
+        }
+
+        result.nodes = nodes;
+        result.timeNanos = System.nanoTime() - startTime;
+        result.pv = extractPrincipalVariation(position, result.bestMove);
+        if (ChessMetrics.ENABLED) flushMetrics(allocatedBefore);
+        return result;
+    }
+
+    private void flushMetrics(long allocatedBefore) {
+        ChessMetrics.SEARCHES.increment();
+        ChessMetrics.NODES.add(nodes);
+        ChessMetrics.TT_PROBES.add(ttProbes);
+        ChessMetrics.TT_HITS.add(ttHits);
+        ChessMetrics.CUTOFFS.add(cutoffs);
+        ChessMetrics.FIRST_MOVE_CUTOFFS.add(firstMoveCutoffs);
+        long allocatedAfter = ChessMetrics.allocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            ChessMetrics.ALLOCATED_BYTES.add(allocatedAfter - allocatedBefore);
+        }
+        ttProbes = ttHits = cutoffs = firstMoveCutoffs = 0;
+    }
+
+    // Проверка лимита времени и вызов слушателя прогресса (раз в 1024 узла)
+    private void checkLimits() {
+        long now = System.nanoTime();
+        if (now > deadline) {
+            stopped = true;
+        }
+        if (progressListener != null && now >= nextProgress) {
+            nextProgress = now + progressIntervalNanos;
+            progressListener.onProgress(this, false);
+            listenerNanos += System.nanoTime() - now;
+        }
+    }
+
+    private static void moveToFront(int[] moves, int count, int move) {
+        for (int i = 1; i < count; i++) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    // Поиск в корне: лучший ход перемещается в начало массива rootMoves
+    private int searchRoot(ChessPosition position, int depth, int[] rootMoves, int count) {
+        int alpha = -INFINITY;
+        int bestIndex = 0;
+        for (int i = 0; i < count; i++) {
+            long nodesBefore = nodes;
+            position.makeMove(rootMoves[i]);
+            int score = -alphaBeta(position, depth - 1, 1, -INFINITY, -alpha);
+            position.unmakeMove();
+            if (stopped) return alpha;
+
+            rootScores[i] = score;
+            rootNodes[i] = nodes - nodesBefore;
+            if (score > alpha) {
+                alpha = score;
+                bestIndex = i;
+            }
+        }
+
+        // Лучший ход ставим первым, чтобы на следующей итерации он просматривался раньше остальных
+        int best = rootMoves[bestIndex];
+        int bestScore = rootScores[bestIndex];
+        long bestNodes = rootNodes[bestIndex];
+        System.arraycopy(rootMoves, 0, rootMoves, 1, bestIndex);
+        System.arraycopy(rootScores, 0, rootScores, 1, bestIndex);
+        System.arraycopy(rootNodes, 0, rootNodes, 1, bestIndex);
+        rootMoves[0] = best;
+        rootScores[0] = bestScore;
+        rootNodes[0] = bestNodes;
+
+        if (transpositionTable != null) {
+            transpositionTable.store(position.key, best, toTableScore(alpha, 0), depth, TranspositionTable.EXACT);
+        }
+        return alpha;
+    }
+
+    private int alphaBeta(ChessPosition position, int depth, int ply, int alpha, int beta) {
+        if ((++nodes & 1023) == 0) checkLimits();
+        if (stopped) return 0;
+
+        if (position.isRepetition()) return 0;
+        if (depth <= 0 || ply >= MAX_DEPTH) return quiescence(position, ply, alpha, beta);
+
+        int ttMove = 0;
+        if (transpositionTable != null) {
+            long entry = transpositionTable.probe(position.key);
+            if (ChessMetrics.ENABLED) ttProbes++;
+            if (entry != 0) {
+                if (ChessMetrics.ENABLED) ttHits++;
+                ttMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int ttScore = fromTableScore(TranspositionTable.score(entry), ply);
+                    int flag = TranspositionTable.flag(entry);
+                    if (flag == TranspositionTable.EXACT
+                            || (flag == TranspositionTable.LOWER && ttScore >= beta)
+                            || (flag == TranspositionTable.UPPER && ttScore <= alpha)) {
+                        return ttScore;
+                    }
+                }
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = position.generateLegalMoves(moves);
+        if (count == 0) {
+            // Мат или пат
+            return position.isInCheck(position.sideToMove()) ? -MATE + ply : 0;
+        }
+        if (config.orderMoves) orderMoves(position, moves, count, ttMove, orderBuffers[ply]);
+
+        int originalAlpha = alpha;
+        int bestMove = 0;
+        int bestScore = -INFINITY;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            int score = -alphaBeta(position, depth - 1, ply + 1, -beta, -alpha);
+            position.unmakeMove();
+            if (stopped) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = moves[i];
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) {
+                if (ChessMetrics.ENABLED) {
+                    cutoffs++;
+                    if (i == 0) firstMoveCutoffs++;
+                }
+                break;
+            }
+        }
+
+        if (transpositionTable != null) {
+            int flag = bestScore >= beta ? TranspositionTable.LOWER
+                    : bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            transpositionTable.store(position.key, bestMove, toTableScore(bestScore, ply), depth, flag);
+        }
+        return bestScore;
+    }
+
+    // Поиск только по взятиям, чтобы оценка не обрывалась посреди размена
+    private int quiescence(ChessPosition position, int ply, int alpha, int beta) {
+        if ((++nodes & 1023) == 0) checkLimits();
+        if (stopped) return 0;
+
+        int standPat = evaluate(position);
+        if (standPat >= beta || ply >= MAX_DEPTH) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        int[] moves = moveBuffers[ply];
+        int count = position.generateLegalMoves(moves);
+        if (config.orderMoves) orderMoves(position, moves, count, 0, orderBuffers[ply]);
+
+        for (int i = 0; i < count; i++) {
+            if (!position.isCapture(moves[i])) continue;
+            position.makeMove(moves[i]);
+            int score = -quiescence(position, ply + 1, -beta, -alpha);
+            position.unmakeMove();
+            if (stopped) return 0;
+
+            if (score >= beta) return score;
+            if (score > alpha) alpha = score;
+        }
+        return alpha;
+    }
+
+    // Сортировка ходов: ход из таблицы транспозиций, затем взятия (ценная жертва - дешевый нападающий)
+    private void orderMoves(ChessPosition position, int[] moves, int count, int ttMove, int[] order) {
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (move == ttMove) {
+                order[i] = 1_000_000;
+            } else if (position.isCapture(move)) {
+                int from = ChessPosition.moveFrom(move), to = ChessPosition.moveTo(move);
+                ChessBoard.ChessPiece victim = position.board[to / 8][to % 8];
+                ChessBoard.ChessPiece attacker = position.board[from / 8][from % 8];
+                order[i] = 10_000 + pieceValue(victim) * 10 - pieceValue(attacker) / 10;
+            } else {
+                order[i] = ChessPosition.movePromotion(move) == ChessPosition.PROMO_QUEEN ? 9_000 : 0;
+            }
+        }
+
+        // Сортировка вставками: ходов немного, а массивы переиспользуются
+        for (int i = 1; i < count; i++) {
+            int move = moves[i], score = order[i];
+            int j = i - 1;
+            while (j >= 0 && order[j] < score) {
+                moves[j + 1] = moves[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            order[j + 1] = score;
+        }
+    }
+
+    // Оценка позиции с точки зрения стороны, которая ходит
+    static int evaluate(ChessPosition position) {
+        int score = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessBoard.ChessPiece piece = position.board[row][col];
+                if (piece == null) continue;
+
+                int value = pieceValue(piece);
+                // Небольшой бонус за центр для легких фигур и за продвижение пешек
+                if (piece instanceof ChessBoard.Horse || piece instanceof ChessBoard.Bishop) {
+                    value += 12 - 3 * (Math.abs(2 * row - 7) + Math.abs(2 * col - 7)) / 2;
+                } else if (piece instanceof ChessBoard.Pawn) {
+                    value += 4 * (piece.color == Color.WHITE ? 6 - row : row - 1);
+                }
+                score += piece.color == Color.WHITE ? value : -value;
+            }
+        }
+        return position.whiteTurn ? score : -score;
+    }
+
+    private static int pieceValue(ChessBoard.ChessPiece piece) {
+        return PIECE_VALUES[ChessPosition.pieceIndex(piece) % 6];
+    }
+
+    // Оценки мата в таблице храним относительно текущего узла, а не корня
+    private static int toTableScore(int score, int ply) {
+        if (score >= MATE - MAX_DEPTH) return score + ply;
+        if (score <= -MATE + MAX_DEPTH) return score - ply;
+        return score;
+    }
+
+    private static int fromTableScore(int score, int ply) {
+        if (score >= MATE - MAX_DEPTH) return score - ply;
+        if (score <= -MATE + MAX_DEPTH) return score + ply;
+        return score;
+    }
+
+    // Главный вариант: начинается с лучшего хода, продолжается ходами из таблицы транспозиций
+    private int[] extractPrincipalVariation(ChessPosition position, int bestMove) {
+        int[] pv = new int[MAX_DEPTH];
+        int length = 0;
+        int move = bestMove;
+        int[] moves = new int[ChessPosition.MAX_MOVES];
+        while (move != 0 && length < MAX_DEPTH) {
+            int count = position.generateLegalMoves(moves);
+            boolean legal = false;
+            for (int i = 0; i < count; i++) {
+                if (moves[i] == move) {
+                    legal = true;
+                    break;
+                }
+            }
+            if (!legal) break;
+
+            pv[length++] = move;
+            position.makeMove(move);
+            if (transpositionTable == null || position.isRepetition()) break;
+            long entry = transpositionTable.probe(position.key);
+            move = entry != 0 ? TranspositionTable.move(entry) : 0;
+        }
+        for (int i = 0; i < length; i++) {
+            position.unmakeMove();
+        }
+        return Arrays.copyOf(pv, length);
+    }
+}
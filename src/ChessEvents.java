@@ -0,0 +1,94 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Собственные события Java Flight Recorder.
+// Запись включается обычным способом, например: java -XX:StartFlightRecording=filename=chess.jfr ...
+// Пока запись не идет, begin/commit почти ничего не стоят. Разбор файла записи - JfrAnalyzer.
+final class ChessEvents {
+    static final String CATEGORY = "MyChess";
+
+    private ChessEvents() {
+    }
+
+    // Ход из окна: от клика мыши до обновления доски
+    @Name("mychess.MoveApplied")
+    @Label("Move Applied")
+    @Description("Выполнение хода из handleMouseClick до обновления доски")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MoveApplied extends Event {
+        @Label("Move")
+        String move;
+
+        @Label("White")
+        boolean white;
+    }
+
+    // Проверка окончания партии (мат или пат)
+    @Name("mychess.GameEndCheck")
+    @Label("Game End Check")
+    @Description("Проверка isCheckmate / isStalemate")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class GameEndCheck extends Event {
+        static final String CHECKMATE = "checkmate";
+        static final String STALEMATE = "stalemate";
+
+        @Label("Check")
+        String check;
+
+        @Label("Result")
+        boolean result;
+
+        static GameEndCheck begin(String check) {
+            GameEndCheck event = new GameEndCheck();
+            event.check = check;
+            event.begin();
+            return event;
+        }
+
+        void end(boolean result) {
+            if (shouldCommit()) {
+                this.result = result;
+                commit();
+            }
+        }
+    }
+
+    // Одна итерация итеративного углубления
+    @Name("mychess.SearchIteration")
+    @Label("Search Iteration")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class SearchIteration extends Event {
+        @Label("Depth")
+        int depth;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Best Move")
+        String bestMove;
+
+        @Label("Score")
+        int score;
+
+        @Label("Listener Time")
+        @Description("Время слушателя прогресса (контрольные точки) внутри итерации; к поиску не относится")
+        @Timespan(Timespan.NANOSECONDS)
+        long listenerTime;
+    }
+
+    // Перерисовка панели доски в потоке EDT
+    @Name("mychess.BoardRepaint")
+    @Label("Board Repaint")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class BoardRepaint extends Event {
+    }
+}
@@ -0,0 +1,202 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Счетчики и таймеры для правил и движка.
+// Включаются свойством -Dchess.metrics=true. Все места учета проверяют константу ENABLED,
+// поэтому при выключенных метриках JIT выбрасывает этот код целиком.
+// Значения доступны через JMX (MyChess:type=Metrics) и периодический текстовый вывод в stderr
+// (-Dchess.metrics.dumpSeconds=N), чтобы он не смешивался с результатами в stdout.
+public final class ChessMetrics {
+    static final boolean ENABLED = Boolean.getBoolean("chess.metrics");
+
+    // Правила
+    static final LongAdder VALID_MOVE_CALLS = new LongAdder();
+    static final LongAdder IN_CHECK_CALLS = new LongAdder();
+    static final LongAdder CHECKMATE_CALLS = new LongAdder();
+    static final LongAdder STALEMATE_CALLS = new LongAdder();
+
+    // Поиск
+    static final LongAdder SEARCHES = new LongAdder();
+    static final LongAdder NODES = new LongAdder();
+    static final LongAdder TT_PROBES = new LongAdder();
+    static final LongAdder TT_HITS = new LongAdder();
+    static final LongAdder CUTOFFS = new LongAdder();
+    static final LongAdder FIRST_MOVE_CUTOFFS = new LongAdder();
+    static final LongAdder ALLOCATED_BYTES = new LongAdder();
+
+    // Кэш позиций (PositionCache)
+    static final LongAdder CACHE_HITS = new LongAdder();
+    static final LongAdder CACHE_MISSES = new LongAdder();
+    static final LongAdder CACHE_EVICTIONS = new LongAdder();
+
+    // Задержки
+    static final Histogram MOVE_VALIDATION = new Histogram();
+    static final Histogram SEARCH_ITERATION = new Histogram();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean ? bean : null;
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new Stats(), new ObjectName("MyChess:type=Metrics"));
+            } catch (Exception e) {
+                System.err.println("Не удалось зарегистрировать MBean метрик: " + e);
+            }
+
+            long period = Long.getLong("chess.metrics.dumpSeconds", 0);
+            if (period > 0) {
+                ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chess-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                dumper.scheduleAtFixedRate(() -> System.err.println(dump()), period, period, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private ChessMetrics() {
+    }
+
+    // Сколько байт выделил текущий поток (для учета выделений памяти на ход); -1, если JVM это не поддерживает
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    // Текстовый отчет по всем метрикам
+    static String dump() {
+        long searches = SEARCHES.sum();
+        long probes = TT_PROBES.sum();
+        long cutoffs = CUTOFFS.sum();
+        long cacheHits = CACHE_HITS.sum();
+        return String.format("""
+                        [метрики] isValidMove: %d, isInCheck: %d, isCheckmate: %d, isStalemate: %d
+                        [метрики] поисков: %d, узлов: %d, TT: %d проб, %.1f%% попаданий, отсечений: %d (%.1f%% на первом ходу)
+                        [метрики] кэш позиций: %d попаданий, %d промахов (%.1f%%), вытеснений %d
+                        [метрики] выделено на ход: %d байт
+                        [метрики] проверка ходов: %s
+                        [метрики] итерация поиска: %s""",
+                VALID_MOVE_CALLS.sum(), IN_CHECK_CALLS.sum(), CHECKMATE_CALLS.sum(), STALEMATE_CALLS.sum(),
+                searches, NODES.sum(), probes, percent(TT_HITS.sum(), probes),
+                cutoffs, percent(FIRST_MOVE_CUTOFFS.sum(), cutoffs),
+                cacheHits, CACHE_MISSES.sum(), percent(cacheHits, cacheHits + CACHE_MISSES.sum()), CACHE_EVICTIONS.sum(),
+                searches > 0 ? ALLOCATED_BYTES.sum() / searches : 0,
+                MOVE_VALIDATION, SEARCH_ITERATION);
+    }
+
+    private static double percent(long part, long total) {
+        return total > 0 ? 100.0 * part / total : 0;
+    }
+
+    // Гистограмма задержек: корзины по степеням двойки наносекунд
+    static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double meanMicros() {
+            long n = count.sum();
+            return n > 0 ? totalNanos.sum() / 1e3 / n : 0;
+        }
+
+        // Приближенный перцентиль в микросекундах (верхняя граница корзины)
+        double percentileMicros(double p) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long target = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) return (2L << i) / 1e3;
+            }
+            return Long.MAX_VALUE / 1e3;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d, среднее %.1f мкс, p50 %.1f мкс, p90 %.1f мкс, p99 %.1f мкс",
+                    count(), meanMicros(), percentileMicros(0.5), percentileMicros(0.9), percentileMicros(0.99));
+        }
+    }
+
+    // Интерфейс для JMX
+    public interface StatsMXBean {
+        long getValidMoveCalls();
+        long getInCheckCalls();
+        long getCheckmateCalls();
+        long getStalemateCalls();
+        long getSearches();
+        long getNodes();
+        long getTranspositionProbes();
+        long getTranspositionHits();
+        long getCutoffs();
+        long getFirstMoveCutoffs();
+        long getAllocatedBytesPerMove();
+        long getPositionCacheHits();
+        long getPositionCacheMisses();
+        long getPositionCacheEvictions();
+        double getPositionCacheHitRate();
+        double getMoveValidationP50Micros();
+        double getMoveValidationP99Micros();
+        double getSearchIterationP50Micros();
+        double getSearchIterationP99Micros();
+        String getReport();
+    }
+
+    static final class Stats implements StatsMXBean {
+        @Override public long getValidMoveCalls() { return VALID_MOVE_CALLS.sum(); }
+        @Override public long getInCheckCalls() { return IN_CHECK_CALLS.sum(); }
+        @Override public long getCheckmateCalls() { return CHECKMATE_CALLS.sum(); }
+        @Override public long getStalemateCalls() { return STALEMATE_CALLS.sum(); }
+        @Override public long getSearches() { return SEARCHES.sum(); }
+        @Override public long getNodes() { return NODES.sum(); }
+        @Override public long getTranspositionProbes() { return TT_PROBES.sum(); }
+        @Override public long getTranspositionHits() { return TT_HITS.sum(); }
+        @Override public long getCutoffs() { return CUTOFFS.sum(); }
+        @Override public long getFirstMoveCutoffs() { return FIRST_MOVE_CUTOFFS.sum(); }
+
+        @Override
+        public long getAllocatedBytesPerMove() {
+            long searches = SEARCHES.sum();
+            return searches > 0 ? ALLOCATED_BYTES.sum() / searches : 0;
+        }
+
+        @Override public long getPositionCacheHits() { return CACHE_HITS.sum(); }
+        @Override public long getPositionCacheMisses() { return CACHE_MISSES.sum(); }
+        @Override public long getPositionCacheEvictions() { return CACHE_EVICTIONS.sum(); }
+
+        @Override
+        public double getPositionCacheHitRate() {
+            long hits = CACHE_HITS.sum();
+            return percent(hits, hits + CACHE_MISSES.sum());
+        }
+
+        @Override public double getMoveValidationP50Micros() { return MOVE_VALIDATION.percentileMicros(0.5); }
+        @Override public double getMoveValidationP99Micros() { return MOVE_VALIDATION.percentileMicros(0.99); }
+        @Override public double getSearchIterationP50Micros() { return SEARCH_ITERATION.percentileMicros(0.5); }
+        @Override public double getSearchIterationP99Micros() { return SEARCH_ITERATION.percentileMicros(0.99); }
+        @Override public String getReport() { return dump(); }
+    }
+}
@@ -0,0 +1,589 @@
+import java.awt.Color;
+import java.util.Random;
+
+// Позиция без графического интерфейса: доска, очередность хода и ключ Зобриста.
+// Правила берутся из фигур ChessBoard (isValidMove), поэтому позиция ведет себя так же, как доска в окне.
+//
+// Ход кодируется в int (помещается в 16 бит):
+//   биты 0-5   - исходная клетка (row * 8 + col)
+//   биты 6-11  - целевая клетка
+//   биты 12-14 - фигура превращения (0 - нет, 1 - ферзь, 2 - ладья, 3 - слон, 4 - конь)
+public class ChessPosition {
+    static final int MAX_MOVES = 256;  // Больше 218 легальных ходов в шахматах не бывает
+    static final int MAX_PLY = 1024;   // Глубина стека отмены ходов
+
+    static final int PROMO_NONE = 0, PROMO_QUEEN = 1, PROMO_ROOK = 2, PROMO_BISHOP = 3, PROMO_HORSE = 4;
+
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    final ChessBoard.ChessPiece[][] board = new ChessBoard.ChessPiece[8][8];
+    boolean whiteTurn = true;
+    long key;
+
+    // Стек отмены ходов (заранее выделенные массивы, чтобы не создавать объекты на каждый ход)
+    private int ply;
+    private final int[] undoMove = new int[MAX_PLY];
+    private final ChessBoard.ChessPiece[] undoCaptured = new ChessBoard.ChessPiece[MAX_PLY];
+    private final ChessBoard.ChessPiece[] undoMoved = new ChessBoard.ChessPiece[MAX_PLY];
+    private final boolean[] undoHasMoved = new boolean[MAX_PLY];
+    private final boolean[] undoRookHasMoved = new boolean[MAX_PLY];
+    private final long[] keyHistory = new long[MAX_PLY];
+
+    // Позиции королей, чтобы не искать их по всей доске при каждой проверке шаха
+    private int whiteKingSquare = -1, blackKingSquare = -1;
+
+    // Рабочий буфер для проверок наличия ходов
+    private final int[] scratchMoves = new int[MAX_MOVES];
+
+    public ChessPosition() {
+    }
+
+    public static ChessPosition fromFen(String fen) {
+        ChessPosition position = new ChessPosition();
+        position.setFen(fen);
+        return position;
+    }
+
+    // Загрузка позиции из FEN в уже существующий объект (объект можно переиспользовать)
+    public void setFen(String fen) {
+        String[] parts = fen.trim().split("\\s+");
+        String[] rows = parts[0].split("/");
+        if (rows.length != 8) {
+            throw new IllegalArgumentException("Некорректный FEN: " + fen);
+        }
+
+        for (int row = 0; row < 8; row++) {
+            int col = 0;
+            for (char c : rows[row].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    if (col + (c - '0') > 8) {
+                        throw new IllegalArgumentException("Некорректный FEN: " + fen);
+                    }
+                    for (int i = 0; i < c - '0'; i++) {
+                        board[row][col++] = null;
+                    }
+                } else {
+                    if (col >= 8) {
+                        throw new IllegalArgumentException("Некорректный FEN: " + fen);
+                    }
+                    ChessBoard.ChessPiece piece = createPiece(Character.toLowerCase(c),
+                            Character.isUpperCase(c) ? Color.WHITE : Color.BLACK);
+                    if (piece == null) {
+                        throw new IllegalArgumentException("Некорректный FEN: " + fen);
+                    }
+                    piece.hasMoved = true;
+                    board[row][col++] = piece;
+                }
+            }
+            if (col != 8) {
+                throw new IllegalArgumentException("Некорректный FEN: " + fen);
+            }
+        }
+
+        if (parts.length >= 2 && !parts[1].equals("w") && !parts[1].equals("b")) {
+            throw new IllegalArgumentException("Некорректный FEN: " + fen);
+        }
+        whiteTurn = parts.length < 2 || parts[1].equals("w");
+
+        // Права на рокировку переводим в флаги hasMoved королей и ладей
+        String castling = parts.length < 3 ? "-" : parts[2];
+        unmarkMoved(7, 4, 7, 7, castling.indexOf('K') >= 0);
+        unmarkMoved(7, 4, 7, 0, castling.indexOf('Q') >= 0);
+        unmarkMoved(0, 4, 0, 7, castling.indexOf('k') >= 0);
+        unmarkMoved(0, 4, 0, 0, castling.indexOf('q') >= 0);
+
+        ply = 0;
+        updateKingSquares();
+        key = computeKey();
+    }
+
+    private void unmarkMoved(int kingRow, int kingCol, int rookRow, int rookCol, boolean right) {
+        if (right && board[kingRow][kingCol] instanceof ChessBoard.King
+                && board[rookRow][rookCol] instanceof ChessBoard.Rook) {
+            board[kingRow][kingCol].hasMoved = false;
+            board[rookRow][rookCol].hasMoved = false;
+        }
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                ChessBoard.ChessPiece piece = board[row][col];
+                if (piece == null) {
+                    empty++;
+                } else {
+                    if (empty > 0) {
+                        sb.append(empty);
+                        empty = 0;
+                    }
+                    char c = pieceChar(piece);
+                    sb.append(piece.color == Color.WHITE ? Character.toUpperCase(c) : c);
+                }
+            }
+            if (empty > 0) sb.append(empty);
+            if (row < 7) sb.append('/');
+        }
+        sb.append(whiteTurn ? " w " : " b ");
+
+        int rights = castlingRights();
+        if (rights == 0) {
+            sb.append('-');
+        } else {
+            if ((rights & 1) != 0) sb.append('K');
+            if ((rights & 2) != 0) sb.append('Q');
+            if ((rights & 4) != 0) sb.append('k');
+            if ((rights & 8) != 0) sb.append('q');
+        }
+        sb.append(" - 0 1");
+        return sb.toString();
+    }
+
+    // Позиция по доске из окна ChessBoard (фигуры копируются, доска окна не меняется)
+    static ChessPosition fromBoard(ChessBoard.ChessPiece[][] board, boolean whiteTurn) {
+        ChessPosition position = new ChessPosition();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                position.board[row][col] = copyPiece(board[row][col]);
+            }
+        }
+        position.whiteTurn = whiteTurn;
+        position.updateKingSquares();
+        position.key = position.computeKey();
+        return position;
+    }
+
+    // Полная копия позиции (фигуры тоже копируются, так как у них есть изменяемый флаг hasMoved)
+    public ChessPosition copy() {
+        ChessPosition copy = new ChessPosition();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                copy.board[row][col] = copyPiece(board[row][col]);
+            }
+        }
+        copy.whiteTurn = whiteTurn;
+        copy.key = key;
+        copy.ply = 0;
+        copy.updateKingSquares();
+        return copy;
+    }
+
+    static ChessBoard.ChessPiece copyPiece(ChessBoard.ChessPiece piece) {
+        if (piece == null) return null;
+        ChessBoard.ChessPiece copy = createPiece(pieceChar(piece), piece.color);
+        copy.hasMoved = piece.hasMoved;
+        return copy;
+    }
+
+    static ChessBoard.ChessPiece createPiece(char c, Color color) {
+        return switch (c) {
+            case 'p' -> new ChessBoard.Pawn(color);
+            case 'n' -> new ChessBoard.Horse(color);
+            case 'b' -> new ChessBoard.Bishop(color);
+            case 'r' -> new ChessBoard.Rook(color);
+            case 'q' -> new ChessBoard.Queen(color);
+            case 'k' -> new ChessBoard.King(color);
+            default -> null;
+        };
+    }
+
+    static char pieceChar(ChessBoard.ChessPiece piece) {
+        if (piece instanceof ChessBoard.Pawn) return 'p';
+        if (piece instanceof ChessBoard.Horse) return 'n';
+        if (piece instanceof ChessBoard.Bishop) return 'b';
+        if (piece instanceof ChessBoard.Rook) return 'r';
+        if (piece instanceof ChessBoard.Queen) return 'q';
+        return 'k';
+    }
+
+    // Индекс фигуры для таблиц Зобриста и оценки: 0..5 - белые, 6..11 - черные
+    static int pieceIndex(ChessBoard.ChessPiece piece) {
+        int type = "pnbrqk".indexOf(pieceChar(piece));
+        return piece.color == Color.WHITE ? type : type + 6;
+    }
+
+    Color sideToMove() {
+        return whiteTurn ? Color.WHITE : Color.BLACK;
+    }
+
+    // ===================== Кодирование ходов =====================
+
+    static int encodeMove(int startX, int startY, int endX, int endY, int promotion) {
+        return (startX * 8 + startY) | ((endX * 8 + endY) << 6) | (promotion << 12);
+    }
+
+    static int moveFrom(int move) {
+        return move & 63;
+    }
+
+    static int moveTo(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    static int movePromotion(int move) {
+        return (move >>> 12) & 7;
+    }
+
+    // Запись хода в виде "e2e4" / "e7e8q"
+    static String moveToString(int move) {
+        if (move == 0) return "0000";
+        int from = moveFrom(move), to = moveTo(move);
+        StringBuilder sb = new StringBuilder();
+        sb.append((char) ('a' + from % 8)).append(8 - from / 8);
+        sb.append((char) ('a' + to % 8)).append(8 - to / 8);
+        int promotion = movePromotion(move);
+        if (promotion != PROMO_NONE) sb.append(" qrbn".charAt(promotion));
+        return sb.toString();
+    }
+
+    // ===================== Генерация ходов =====================
+
+    // Заполняет массив легальными ходами стороны, которая ходит; возвращает их количество
+    int generateLegalMoves(int[] moves) {
+        long startTime = ChessMetrics.ENABLED ? System.nanoTime() : 0;
+        int count = 0;
+        Color color = sideToMove();
+        for (int startX = 0; startX < 8; startX++) {
+            for (int startY = 0; startY < 8; startY++) {
+                ChessBoard.ChessPiece piece = board[startX][startY];
+                if (piece == null || piece.color != color) continue;
+                count = generatePieceMoves(startX, startY, moves, count);
+            }
+        }
+        if (ChessMetrics.ENABLED) ChessMetrics.MOVE_VALIDATION.record(System.nanoTime() - startTime);
+        return count;
+    }
+
+    // Легальные ходы одной фигуры (дописываются в массив начиная с позиции count)
+    int generatePieceMoves(int startX, int startY, int[] moves, int count) {
+        ChessBoard.ChessPiece piece = board[startX][startY];
+        for (int endX = 0; endX < 8; endX++) {
+            for (int endY = 0; endY < 8; endY++) {
+                if (endX == startX && endY == startY) continue;
+                ChessBoard.ChessPiece target = board[endX][endY];
+                if (target != null && target.color == piece.color) continue;
+                if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
+                if (!piece.isValidMove(startX, startY, endX, endY, board)) continue;
+
+                if (piece instanceof ChessBoard.King && Math.abs(endY - startY) == 2) {
+                    int castle = encodeMove(startX, startY, endX, endY, PROMO_NONE);
+                    if (startX == endX && canCastle(startX, startY, endY) && isLegal(castle)) {
+                        moves[count++] = castle;
+                    }
+                    continue;
+                }
+                if (target instanceof ChessBoard.King) continue;
+
+                int move = encodeMove(startX, startY, endX, endY, PROMO_NONE);
+                if (!isLegal(move)) continue;
+
+                if (piece instanceof ChessBoard.Pawn && (endX == 0 || endX == 7)) {
+                    for (int promotion = PROMO_QUEEN; promotion <= PROMO_HORSE; promotion++) {
+                        moves[count++] = move | (promotion << 12);
+                    }
+                } else {
+                    moves[count++] = move;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Проверка, не оставляет ли ход своего короля под шахом
+    private boolean isLegal(int move) {
+        Color color = sideToMove();
+        makeMove(move);
+        boolean exposesKing = isInCheck(color);
+        unmakeMove();
+        return !exposesKing;
+    }
+
+    // Рокировка по тем же правилам, что и ChessBoard.canCastle
+    private boolean canCastle(int startX, int startY, int endY) {
+        ChessBoard.ChessPiece king = board[startX][startY];
+        if (king.hasMoved || (startX != 0 && startX != 7) || startY != 4) return false;
+        if (isInCheck(king.color)) return false;
+
+        int rookCol = (endY > startY) ? 7 : 0;
+        ChessBoard.ChessPiece rook = board[startX][rookCol];
+        if (!(rook instanceof ChessBoard.Rook) || rook.hasMoved || rook.color != king.color) return false;
+
+        int step = (endY > startY) ? 1 : -1;
+        for (int col = startY + step; col != rookCol; col += step) {
+            if (board[startX][col] != null) return false;
+        }
+
+        Color opponentColor = king.color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        for (int col = startY; col != endY + step; col += step) {
+            if (isSquareUnderAttack(startX, col, opponentColor)) return false;
+        }
+        return true;
+    }
+
+    boolean isCapture(int move) {
+        int to = moveTo(move);
+        return board[to / 8][to % 8] != null;
+    }
+
+    // ===================== Выполнение и отмена ходов =====================
+
+    void makeMove(int move) {
+        int from = moveFrom(move), to = moveTo(move);
+        int startX = from / 8, startY = from % 8, endX = to / 8, endY = to % 8;
+        ChessBoard.ChessPiece piece = board[startX][startY];
+        ChessBoard.ChessPiece captured = board[endX][endY];
+        int oldRights = castlingRights();
+
+        keyHistory[ply] = key;
+        undoMove[ply] = move;
+        undoMoved[ply] = piece;
+        undoCaptured[ply] = captured;
+        undoHasMoved[ply] = piece.hasMoved;
+
+        key ^= Zobrist.PIECES[pieceIndex(piece)][from];
+        if (captured != null) key ^= Zobrist.PIECES[pieceIndex(captured)][to];
+
+        board[startX][startY] = null;
+        ChessBoard.ChessPiece placed = piece;
+        int promotion = movePromotion(move);
+        if (promotion != PROMO_NONE) {
+            placed = createPiece(" qrbn".charAt(promotion), piece.color);
+        }
+        board[endX][endY] = placed;
+        placed.hasMoved = true;
+        key ^= Zobrist.PIECES[pieceIndex(placed)][to];
+
+        if (piece instanceof ChessBoard.King) {
+            if (piece.color == Color.WHITE) whiteKingSquare = to;
+            else blackKingSquare = to;
+
+            // При рокировке переносим ладью
+            if (Math.abs(endY - startY) == 2) {
+                boolean isKingSide = endY > startY;
+                int rookStartCol = isKingSide ? 7 : 0;
+                int rookEndCol = isKingSide ? endY - 1 : endY + 1;
+                ChessBoard.ChessPiece rook = board[endX][rookStartCol];
+                undoRookHasMoved[ply] = rook.hasMoved;
+                board[endX][rookEndCol] = rook;
+                board[endX][rookStartCol] = null;
+                rook.hasMoved = true;
+                key ^= Zobrist.PIECES[pieceIndex(rook)][endX * 8 + rookStartCol];
+                key ^= Zobrist.PIECES[pieceIndex(rook)][endX * 8 + rookEndCol];
+            }
+        }
+
+        int newRights = castlingRights();
+        if (newRights != oldRights) {
+            key ^= Zobrist.CASTLING[oldRights] ^ Zobrist.CASTLING[newRights];
+        }
+        key ^= Zobrist.SIDE;
+        whiteTurn = !whiteTurn;
+        ply++;
+    }
+
+    void unmakeMove() {
+        ply--;
+        int move = undoMove[ply];
+        int from = moveFrom(move), to = moveTo(move);
+        int startX = from / 8, startY = from % 8, endX = to / 8, endY = to % 8;
+        ChessBoard.ChessPiece piece = undoMoved[ply];
+
+        board[startX][startY] = piece;
+        board[endX][endY] = undoCaptured[ply];
+        piece.hasMoved = undoHasMoved[ply];
+        undoCaptured[ply] = null;
+        undoMoved[ply] = null;
+
+        if (piece instanceof ChessBoard.King) {
+            if (piece.color == Color.WHITE) whiteKingSquare = from;
+            else blackKingSquare = from;
+
+            if (Math.abs(endY - startY) == 2) {
+                boolean isKingSide = endY > startY;
+                int rookStartCol = isKingSide ? 7 : 0;
+                int rookEndCol = isKingSide ? endY - 1 : endY + 1;
+                ChessBoard.ChessPiece rook = board[endX][rookEndCol];
+                board[endX][rookStartCol] = rook;
+                board[endX][rookEndCol] = null;
+                rook.hasMoved = undoRookHasMoved[ply];
+            }
+        }
+
+        whiteTurn = !whiteTurn;
+        key = keyHistory[ply];
+    }
+
+    // Последний сделанный ход (0, если ходов еще не было)
+    int lastMove() {
+        return ply > 0 ? undoMove[ply - 1] : 0;
+    }
+
+    // Повторение позиции в пределах истории ходов
+    boolean isRepetition() {
+        for (int i = ply - 2; i >= 0; i -= 2) {
+            if (keyHistory[i] == key) return true;
+        }
+        return false;
+    }
+
+    int repetitionCount() {
+        int count = 0;
+        for (int i = ply - 2; i >= 0; i -= 2) {
+            if (keyHistory[i] == key) count++;
+        }
+        return count;
+    }
+
+    // Права на рокировку (биты: 1 - K, 2 - Q, 4 - k, 8 - q), вычисляются по флагам hasMoved
+    int castlingRights() {
+        return castlingRights(board);
+    }
+
+    static int castlingRights(ChessBoard.ChessPiece[][] board) {
+        int rights = 0;
+        if (isUnmoved(board, 7, 4, ChessBoard.King.class, Color.WHITE)) {
+            if (isUnmoved(board, 7, 7, ChessBoard.Rook.class, Color.WHITE)) rights |= 1;
+            if (isUnmoved(board, 7, 0, ChessBoard.Rook.class, Color.WHITE)) rights |= 2;
+        }
+        if (isUnmoved(board, 0, 4, ChessBoard.King.class, Color.BLACK)) {
+            if (isUnmoved(board, 0, 7, ChessBoard.Rook.class, Color.BLACK)) rights |= 4;
+            if (isUnmoved(board, 0, 0, ChessBoard.Rook.class, Color.BLACK)) rights |= 8;
+        }
+        return rights;
+    }
+
+    private static boolean isUnmoved(ChessBoard.ChessPiece[][] board, int row, int col, Class<?> type, Color color) {
+        ChessBoard.ChessPiece piece = board[row][col];
+        return piece != null && piece.getClass() == type && piece.color == color && !piece.hasMoved;
+    }
+
+    // ===================== Шах, мат и пат =====================
+
+    boolean isInCheck(Color color) {
+        if (ChessMetrics.ENABLED) ChessMetrics.IN_CHECK_CALLS.increment();
+        int kingSquare = color == Color.WHITE ? whiteKingSquare : blackKingSquare;
+        if (kingSquare < 0) return false;
+        return isSquareUnderAttack(kingSquare / 8, kingSquare % 8,
+                color == Color.WHITE ? Color.BLACK : Color.WHITE);
+    }
+
+    boolean isSquareUnderAttack(int row, int col, Color attackerColor) {
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                ChessBoard.ChessPiece piece = board[i][j];
+                if (piece == null || piece.color != attackerColor) continue;
+                if (piece instanceof ChessBoard.King) {
+                    // Рокировка не является атакой
+                    if (Math.abs(i - row) <= 1 && Math.abs(j - col) <= 1 && (i != row || j != col)) return true;
+                } else if (piece instanceof ChessBoard.Pawn) {
+                    // Пешка бьет только по диагонали, в том числе пустые клетки; ход вперед - не атака
+                    int direction = piece.color == Color.WHITE ? -1 : 1;
+                    if (row == i + direction && Math.abs(col - j) == 1) return true;
+                } else {
+                    if (ChessMetrics.ENABLED) ChessMetrics.VALID_MOVE_CALLS.increment();
+                    if (piece.isValidMove(i, j, row, col, board)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    boolean hasLegalMoves() {
+        Color color = sideToMove();
+        for (int startX = 0; startX < 8; startX++) {
+            for (int startY = 0; startY < 8; startY++) {
+                ChessBoard.ChessPiece piece = board[startX][startY];
+                if (piece != null && piece.color == color && generatePieceMoves(startX, startY, scratchMoves, 0) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    boolean isCheckmate() {
+        if (ChessMetrics.ENABLED) ChessMetrics.CHECKMATE_CALLS.increment();
+        ChessEvents.GameEndCheck event = ChessEvents.GameEndCheck.begin(ChessEvents.GameEndCheck.CHECKMATE);
+        boolean result = isInCheck(sideToMove()) && !hasLegalMoves();
+        event.end(result);
+        return result;
+    }
+
+    boolean isStalemate() {
+        if (ChessMetrics.ENABLED) ChessMetrics.STALEMATE_CALLS.increment();
+        ChessEvents.GameEndCheck event = ChessEvents.GameEndCheck.begin(ChessEvents.GameEndCheck.STALEMATE);
+        boolean result = !isInCheck(sideToMove()) && !hasLegalMoves();
+        event.end(result);
+        return result;
+    }
+
+    // Недостаточно материала для мата (только короли, либо король и одна легкая фигура)
+    boolean isInsufficientMaterial() {
+        int minors = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessBoard.ChessPiece piece = board[row][col];
+                if (piece == null || piece instanceof ChessBoard.King) continue;
+                if (piece instanceof ChessBoard.Horse || piece instanceof ChessBoard.Bishop) {
+                    minors++;
+                } else {
+                    return false;
+                }
+            }
+        }
+        return minors <= 1;
+    }
+
+    // ===================== Ключ Зобриста =====================
+
+    long computeKey() {
+        return computeKey(board, whiteTurn);
+    }
+
+    // Ключ для произвольной доски (например, доски в окне ChessBoard для дерева партии)
+    static long computeKey(ChessBoard.ChessPiece[][] board, boolean whiteTurn) {
+        long k = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                ChessBoard.ChessPiece piece = board[row][col];
+                if (piece != null) k ^= Zobrist.PIECES[pieceIndex(piece)][row * 8 + col];
+            }
+        }
+        k ^= Zobrist.CASTLING[castlingRights(board)];
+        if (!whiteTurn) k ^= Zobrist.SIDE;
+        return k;
+    }
+
+    private void updateKingSquares() {
+        whiteKingSquare = -1;
+        blackKingSquare = -1;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                if (board[row][col] instanceof ChessBoard.King) {
+                    if (board[row][col].color == Color.WHITE) whiteKingSquare = row * 8 + col;
+                    else blackKingSquare = row * 8 + col;
+                }
+            }
+        }
+    }
+
+    // Случайные числа для ключей Зобриста (фиксированное зерно, чтобы ключи были одинаковыми между запусками)
+    static final class Zobrist {
+        static final long[][] PIECES = new long[12][64];
+        static final long[] CASTLING = new long[16];
+        static final long SIDE;
+
+        static {
+            Random random = new Random(0x5EED_C4E55L);
+            for (long[] squares : PIECES) {
+                for (int i = 0; i < 64; i++) squares[i] = random.nextLong();
+            }
+            for (int i = 0; i < 16; i++) CASTLING[i] = random.nextLong();
+            SIDE = random.nextLong();
+        }
+
+        private Zobrist() {
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+// Дерево партии с вариантами. Каждый узел хранит неизменяемый снимок позиции,
+// поэтому отмена, возврат хода и переход к любому варианту - это просто смена текущего узла,
+// без повторного проигрывания ходов.
+//
+// Снимок позиции - 8 массивов byte по строкам доски. Ход меняет не больше двух строк,
+// остальные строки узел берет у родителя (общие строки не копируются).
+public class GameTree {
+    // Кодирование клетки в снимке: биты 0-2 - тип фигуры (1..6 = p n b r q k), бит 3 - черная, бит 4 - уже ходила
+    private static final String PIECE_TYPES = " pnbrqk";
+    private static final int BLACK = 8, MOVED = 16;
+
+    // Узел дерева: позиция после хода move
+    static final class Node {
+        final Node parent;
+        final short move;       // Ход, который привел к этой позиции (0 у корня)
+        final long key;         // Ключ Зобриста позиции (для поиска повторений)
+        final boolean whiteTurn;
+        private final byte[][] rows;
+        private final List<Node> children = new ArrayList<>(1);  // Главное продолжение - первый ребенок
+
+        private Node(Node parent, int move, byte[][] rows, boolean whiteTurn, long key) {
+            this.parent = parent;
+            this.move = (short) move;
+            this.rows = rows;
+            this.whiteTurn = whiteTurn;
+            this.key = key;
+        }
+
+        // Переносит позицию узла на доску (64 клетки, независимо от длины партии)
+        void restore(ChessBoard.ChessPiece[][] board) {
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    board[row][col] = decode(rows[row][col]);
+                }
+            }
+        }
+
+        // Сколько раз эта позиция уже встречалась раньше на пути от корня (сравниваются только ключи)
+        int repetitions() {
+            int count = 0;
+            for (Node node = parent; node != null; node = node.parent) {
+                if (node.key == key) count++;
+            }
+            return count;
+        }
+
+        // Последовательность ходов от корня до узла
+        List<Integer> moves() {
+            List<Integer> moves = new ArrayList<>();
+            for (Node node = this; node.parent != null; node = node.parent) {
+                moves.add(node.move & 0xFFFF);
+            }
+            Collections.reverse(moves);
+            return moves;
+        }
+    }
+
+    private final Node root;
+    private Node current;
+    private final Deque<Node> redoStack = new ArrayDeque<>();  // Узлы, с которых ушли отменой хода
+
+    public GameTree(ChessBoard.ChessPiece[][] board, boolean whiteTurn) {
+        root = new Node(null, 0, snapshot(board, null), whiteTurn, ChessPosition.computeKey(board, whiteTurn));
+        current = root;
+    }
+
+    Node current() {
+        return current;
+    }
+
+    // Добавление хода: board - доска после хода. Если такой ход уже есть в дереве, переходим в существующий узел,
+    // иначе создается новый вариант
+    Node play(int move, ChessBoard.ChessPiece[][] board, boolean whiteTurn) {
+        redoStack.clear();
+        for (Node child : current.children) {
+            if ((child.move & 0xFFFF) == move) {
+                current = child;
+                return child;
+            }
+        }
+        Node child = new Node(current, move, snapshot(board, current.rows), whiteTurn,
+                ChessPosition.computeKey(board, whiteTurn));
+        current.children.add(child);
+        current = child;
+        return child;
+    }
+
+    // Отмена хода: переход к родителю
+    Node undo() {
+        if (current.parent == null) return null;
+        redoStack.push(current);
+        current = current.parent;
+        return current;
+    }
+
+    // Возврат хода: к узлу, с которого ушли отменой, иначе по главному продолжению
+    Node redo() {
+        Node next = redoStack.peek();
+        if (next != null && next.parent == current) {
+            redoStack.pop();
+        } else {
+            redoStack.clear();
+            if (current.children.isEmpty()) return null;
+            next = current.children.getFirst();
+        }
+        current = next;
+        return current;
+    }
+
+    // Следующий вариант на том же ходу (по кругу среди братьев текущего узла)
+    Node nextVariation() {
+        if (current.parent == null) return null;
+        List<Node> siblings = current.parent.children;
+        if (siblings.size() < 2) return null;
+        redoStack.clear();
+        current = siblings.get((siblings.indexOf(current) + 1) % siblings.size());
+        return current;
+    }
+
+    // Переход к произвольному узлу дерева (например, к концу другого варианта)
+    Node goTo(Node node) {
+        redoStack.clear();
+        current = node;
+        return current;
+    }
+
+    // Концы всех вариантов (листья дерева) в порядке обхода, главный вариант первый
+    List<Node> variations() {
+        List<Node> leaves = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node.children.isEmpty()) {
+                leaves.add(node);
+            }
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                stack.push(node.children.get(i));
+            }
+        }
+        return leaves;
+    }
+
+    // Снимок доски; строки, совпадающие со строками родителя, берутся у родителя
+    private static byte[][] snapshot(ChessBoard.ChessPiece[][] board, byte[][] parentRows) {
+        byte[][] rows = new byte[8][];
+        for (int row = 0; row < 8; row++) {
+            byte[] encoded = new byte[8];
+            for (int col = 0; col < 8; col++) {
+                encoded[col] = encode(board[row][col]);
+            }
+            rows[row] = parentRows != null && Arrays.equals(parentRows[row], encoded)
+                    ? parentRows[row] : encoded;
+        }
+        return rows;
+    }
+
+    private static byte encode(ChessBoard.ChessPiece piece) {
+        if (piece == null) return 0;
+        int code = PIECE_TYPES.indexOf(ChessPosition.pieceChar(piece));
+        if (piece.color == Color.BLACK) code |= BLACK;
+        if (piece.hasMoved) code |= MOVED;
+        return (byte) code;
+    }
+
+    private static ChessBoard.ChessPiece decode(byte code) {
+        if (code == 0) return null;
+        ChessBoard.ChessPiece piece = ChessPosition.createPiece(PIECE_TYPES.charAt(code & 7),
+                (code & BLACK) != 0 ? Color.BLACK : Color.WHITE);
+        piece.hasMoved = (code & MOVED) != 0;
+        return piece;
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+// Сводка по файлу записи JFR: для каждого события MyChess - количество и перцентили длительности.
+// Из длительности итерации поиска вычитается время слушателя прогресса (запись контрольных точек).
+//   java JfrAnalyzer chess.jfr
+public class JfrAnalyzer {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Использование: java JfrAnalyzer <файл.jfr>");
+            System.exit(1);
+        }
+
+        Map<String, List<Long>> durations = new TreeMap<>();
+        try (RecordingFile recording = new RecordingFile(Path.of(args[0]))) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String name = event.getEventType().getName();
+                if (!name.startsWith("mychess.")) continue;
+
+                String key = name;
+                if (event.hasField("check")) {
+                    key += " [" + event.getString("check") + "]";
+                }
+                long nanos = event.getDuration().toNanos();
+                if (event.hasField("listenerTime")) {
+                    nanos -= event.getLong("listenerTime");
+                }
+                durations.computeIfAbsent(key, _ -> new ArrayList<>()).add(nanos);
+            }
+        }
+
+        if (durations.isEmpty()) {
+            System.out.println("В записи нет событий MyChess");
+            return;
+        }
+        System.out.printf("%-36s %8s %10s %10s %10s %10s %10s%n",
+                "Событие", "Кол-во", "p50 мс", "p90 мс", "p99 мс", "p99.9 мс", "макс мс");
+        for (Map.Entry<String, List<Long>> entry : durations.entrySet()) {
+            long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.printf("%-36s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), sorted.length,
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    // Перцентиль в миллисекундах
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+}
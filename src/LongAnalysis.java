@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Долгий анализ одной позиции (заочная партия, анализ на часы) с периодическими контрольными точками.
+// Если файл контрольной точки уже есть, анализ продолжается с сохраненной глубины и с сохраненной
+// таблицей транспозиций, а не начинается заново. При завершении процесса (например, при вытеснении
+// узла) перед выходом записывается свежая контрольная точка.
+//
+//   java LongAnalysis "<FEN>" analysis.ckpt [интервал_с] [глубина] [размер_TT_МБ]
+public class LongAnalysis {
+    private final ChessPosition position;
+    private final String fen;
+    private final Path checkpointFile;
+    private final ChessEngine engine;
+
+    private long previousNodes;     // Узлы, просчитанные до перезапуска
+    private long previousElapsedMs; // Время анализа до перезапуска
+    private long startTime;
+
+    // Завершение процесса: хук выставляет exiting и ждет searchFinished. Защелка создается заранее,
+    // поэтому хук не может ее пропустить, в какой бы момент он ни запустился
+    private volatile boolean exiting;
+    private final CountDownLatch searchFinished = new CountDownLatch(1);
+    private boolean finalCheckpointSaved;  // Только в потоке поиска
+
+    LongAnalysis(String fen, Path checkpointFile, int maxDepth, int ttSizeMb) {
+        this.position = ChessPosition.fromFen(fen);
+        this.fen = position.toFen();
+        this.checkpointFile = checkpointFile;
+        ChessEngine.Config config = new ChessEngine.Config("analysis", maxDepth, 0);
+        config.ttSizeMb = ttSizeMb;
+        this.engine = new ChessEngine(config);
+    }
+
+    ChessEngine.SearchResult run(long checkpointIntervalSeconds) throws IOException {
+        ChessEngine.RootMoveStats previous = null;
+        if (Files.exists(checkpointFile)) {
+            AnalysisCheckpoint checkpoint = AnalysisCheckpoint.read(checkpointFile, engine.transpositionTable);
+            if (!checkpoint.fen.equals(fen)) {
+                throw new IOException("Контрольная точка относится к другой позиции: " + checkpoint.fen);
+            }
+            previous = checkpoint.rootMoves;
+            previousNodes = checkpoint.totalNodes;
+            previousElapsedMs = checkpoint.elapsedMs;
+            System.out.printf("Продолжаем с глубины %d (%d узлов, %.0f с анализа)%n",
+                    previous.depth, previousNodes, previousElapsedMs / 1e3);
+        }
+
+        engine.setProgressListener(this::onProgress, checkpointIntervalSeconds * 1000);
+        Thread shutdownHook = new Thread(this::saveBeforeExit, "checkpoint-on-exit");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        startTime = System.nanoTime();
+        ChessEngine.SearchResult result;
+        try {
+            result = previous != null
+                    ? engine.resume(position, previous)
+                    : engine.search(position);
+            // Последняя контрольная точка, если ее еще не записал слушатель по запросу хука
+            if (!finalCheckpointSaved) saveCheckpoint();
+        } finally {
+            searchFinished.countDown();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Процесс уже завершается: хук запущен и сразу увидит, что поиск закончен
+        }
+        return result;
+    }
+
+    // Вызывается из потока поиска: поиск стоит, пока пишется контрольная точка
+    private void onProgress(ChessEngine engine, boolean iterationFinished) {
+        ChessEngine.RootMoveStats stats = engine.rootMoveStats();
+        if (iterationFinished && stats != null) {
+            System.out.printf("Глубина %d: %s, оценка %d, узлов %d%n", stats.depth,
+                    ChessPosition.moveToString(stats.moves[0]), stats.scores[0], previousNodes + engine.nodes());
+        }
+        boolean exit = exiting;
+        if (!iterationFinished || exit) {
+            saveCheckpoint();
+        }
+        if (exit) {
+            finalCheckpointSaved = true;
+            engine.stop();
+        }
+    }
+
+    // Ошибка записи не прерывает анализ: поиск продолжается, попытка повторится через интервал
+    private void saveCheckpoint() {
+        ChessEngine.RootMoveStats stats = engine.rootMoveStats();
+        if (stats == null) return;  // Ни одна итерация еще не завершена - сохранять нечего
+        long elapsedMs = previousElapsedMs + (System.nanoTime() - startTime) / 1_000_000;
+        try {
+            new AnalysisCheckpoint(fen, stats, previousNodes + engine.nodes(), elapsedMs)
+                    .write(checkpointFile, engine.transpositionTable);
+        } catch (IOException e) {
+            System.err.println("Не удалось записать контрольную точку: " + e);
+        }
+    }
+
+    // Завершение процесса: просим поток поиска записать контрольную точку, остановиться и ждем его
+    private void saveBeforeExit() {
+        exiting = true;
+        engine.requestProgress();
+        try {
+            if (!searchFinished.await(30, TimeUnit.SECONDS)) {
+                System.err.println("Не дождались записи контрольной точки");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Использование: java LongAnalysis \"<FEN>\" <файл_контрольной_точки> "
+                    + "[интервал_с] [глубина] [размер_TT_МБ]");
+            System.exit(1);
+        }
+        long interval = args.length > 2 ? Long.parseLong(args[2]) : 300;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : ChessEngine.MAX_DEPTH;
+        int ttSizeMb = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+
+        LongAnalysis analysis = new LongAnalysis(args[0], Path.of(args[1]), depth, ttSizeMb);
+        ChessEngine.SearchResult result = analysis.run(interval);
+        System.out.printf("Лучший ход: %s, оценка %d, глубина %d%n",
+                ChessPosition.moveToString(result.bestMove), result.score, result.depth);
+    }
+}
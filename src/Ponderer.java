@@ -0,0 +1,89 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Обдумывание на времени соперника (pondering).
+// После своего хода движок в фоновом потоке ищет ход в позиции после ожидаемого ответа (второй ход
+// главного варианта). Если соперник сыграл ожидаемый ход, фоновый поиск сразу становится настоящим
+// и продолжает работу с уже накопленной глубиной. Иначе фоновый поиск останавливается, а новый
+// поиск начинается с той же таблицей транспозиций, которая сохраняется между ходами.
+//
+// Класс не потокобезопасен: start, resolve, stop и shutdown вызываются из одного потока
+// (или с внешней синхронизацией, как в ChessBoard через engineThinking).
+public class Ponderer {
+    private final ChessEngine engine;
+    private final ExecutorService executor;
+
+    private Future<ChessEngine.SearchResult> pending;  // Текущий фоновый поиск (null - не думаем)
+    private int expectedMove;
+    private long hits, misses;
+
+    public Ponderer(ChessEngine engine) {
+        this.engine = engine;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ponder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Начать обдумывание: position - позиция после нашего хода, pv - главный вариант нашего поиска
+    void start(ChessPosition position, int[] pv) {
+        stop();
+        if (pv.length < 2) return;
+
+        ChessPosition ponderPosition = position.copy();
+        expectedMove = pv[1];
+        ponderPosition.makeMove(expectedMove);
+        engine.preparePonder();
+        pending = executor.submit(() -> engine.ponder(ponderPosition));
+    }
+
+    // Соперник сходил: position - текущая позиция, opponentMove - его ход.
+    // Возвращает результат поиска для нашего хода
+    ChessEngine.SearchResult resolve(ChessPosition position, int opponentMove) {
+        if (pending != null && opponentMove == expectedMove) {
+            hits++;
+            engine.ponderHit();
+            ChessEngine.SearchResult result = await(pending);
+            pending = null;
+            return result;
+        }
+        if (pending != null) misses++;
+        stop();
+        return engine.search(position);
+    }
+
+    // Остановить фоновый поиск и дождаться его завершения
+    void stop() {
+        if (pending == null) return;
+        engine.stop();
+        await(pending);
+        pending = null;
+    }
+
+    void shutdown() {
+        stop();
+        executor.shutdown();
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    private static ChessEngine.SearchResult await(Future<ChessEngine.SearchResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание фонового поиска прервано", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка фонового поиска", e.getCause());
+        }
+    }
+}
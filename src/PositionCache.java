@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+// Кэш результатов анализа позиций вне кучи: по ключу Зобриста хранятся упакованный список легальных ходов
+// и статус позиции (шах, мат, пат). Повторный запрос той же позиции не вызывает генерацию ходов.
+//
+// Память - один direct ByteBuffer, поэтому записи не нагружают сборщик мусора.
+// Кэш разбит на наборы по WAYS записей; внутри набора вытеснение по алгоритму CLOCK
+// (бит обращения сбрасывается стрелкой, вытесняется первая запись без бита).
+// Попадания, промахи и вытеснения также попадают в ChessMetrics (JMX и периодический вывод).
+//
+// Запись (SLOT_SIZE байт):
+//   0   long  ключ
+//   8   byte  флаги: бит 0 - запись занята, биты 1-2 - статус
+//   9   byte  бит обращения для CLOCK
+//   10  short количество ходов
+//   12  short ходы (до MAX_CACHED_MOVES)
+public class PositionCache {
+    static final int NORMAL = 0, CHECK = 1, CHECKMATE = 2, STALEMATE = 3;
+
+    static final int WAYS = 8;
+    static final int SLOT_SIZE = 256;
+    static final int MAX_CACHED_MOVES = (SLOT_SIZE - 12) / 2;
+    private static final int STRIPES = 256;
+
+    private final ByteBuffer memory;
+    private final int setMask;
+    private final byte[] hands;      // Положение стрелки CLOCK для каждого набора
+    private final Object[] locks = new Object[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PositionCache(int sizeMb) {
+        long sets = Math.max(1, (long) sizeMb * 1024 * 1024 / (SLOT_SIZE * WAYS));
+        int setCount = Integer.highestOneBit((int) Math.min(sets, Integer.MAX_VALUE / (SLOT_SIZE * WAYS)));
+        memory = ByteBuffer.allocateDirect(setCount * SLOT_SIZE * WAYS);
+        setMask = setCount - 1;
+        hands = new byte[setCount];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Поиск позиции. При попадании ходы копируются в moves и возвращается packed(статус, количество),
+    // при промахе возвращается -1
+    int lookup(long key, int[] moves) {
+        int set = (int) (key ^ (key >>> 32)) & setMask;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int base = set * WAYS * SLOT_SIZE;
+            for (int way = 0; way < WAYS; way++) {
+                int slot = base + way * SLOT_SIZE;
+                byte flags = memory.get(slot + 8);
+                if ((flags & 1) == 0 || memory.getLong(slot) != key) continue;
+
+                memory.put(slot + 9, (byte) 1);
+                int count = memory.getShort(slot + 10);
+                for (int i = 0; i < count; i++) {
+                    moves[i] = memory.getShort(slot + 12 + i * 2) & 0xFFFF;
+                }
+                hits.increment();
+                if (ChessMetrics.ENABLED) ChessMetrics.CACHE_HITS.increment();
+                return packed((flags >>> 1) & 3, count);
+            }
+        }
+        misses.increment();
+        if (ChessMetrics.ENABLED) ChessMetrics.CACHE_MISSES.increment();
+        return -1;
+    }
+
+    // Сохранение результата анализа позиции
+    void store(long key, int status, int[] moves, int count) {
+        if (count > MAX_CACHED_MOVES) return;  // Такие позиции встречаются крайне редко
+
+        int set = (int) (key ^ (key >>> 32)) & setMask;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int base = set * WAYS * SLOT_SIZE;
+            int slot = findSlot(set, base, key);
+            memory.putLong(slot, key);
+            memory.put(slot + 8, (byte) (1 | (status << 1)));
+            memory.put(slot + 9, (byte) 0);
+            memory.putShort(slot + 10, (short) count);
+            for (int i = 0; i < count; i++) {
+                memory.putShort(slot + 12 + i * 2, (short) moves[i]);
+            }
+        }
+    }
+
+    // Выбор записи для новой позиции: та же позиция, свободная запись или жертва CLOCK
+    private int findSlot(int set, int base, long key) {
+        for (int way = 0; way < WAYS; way++) {
+            int slot = base + way * SLOT_SIZE;
+            if ((memory.get(slot + 8) & 1) == 0 || memory.getLong(slot) == key) return slot;
+        }
+
+        int hand = hands[set];
+        while (true) {
+            int slot = base + hand * SLOT_SIZE;
+            hand = (hand + 1) % WAYS;
+            if (memory.get(slot + 9) != 0) {
+                memory.put(slot + 9, (byte) 0);  // Второй шанс
+            } else {
+                hands[set] = (byte) hand;
+                evictions.increment();
+                if (ChessMetrics.ENABLED) ChessMetrics.CACHE_EVICTIONS.increment();
+                return slot;
+            }
+        }
+    }
+
+    static int packed(int status, int count) {
+        return (status << 16) | count;
+    }
+
+    static int status(int packed) {
+        return packed >>> 16;
+    }
+
+    static int count(int packed) {
+        return packed & 0xFFFF;
+    }
+
+    long capacity() {
+        return (long) (setMask + 1) * WAYS;
+    }
+
+    double hitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    String summary() {
+        return String.format("Кэш позиций: %d записей (%d МБ вне кучи), попаданий %d, промахов %d (%.1f%%), вытеснений %d",
+                capacity(), memory.capacity() / (1024 * 1024), hits.sum(), misses.sum(),
+                100 * hitRate(), evictions.sum());
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Турнир движка против самого себя: две конфигурации играют друг с другом параллельно
+// на фиксированном пуле потоков. Дебюты берутся из списка позиций, каждый дебют играется дважды со сменой цвета.
+// Движок детерминирован, поэтому к каждой паре партий дебют продолжается несколькими случайными полуходами -
+// иначе одна и та же пара (дебют, цвет) давала бы одну и ту же партию, а интервалы Эло и SPRT
+// считали бы повторы независимыми партиями.
+// В конце печатается разница в Эло с доверительным интервалом, результат SPRT и скорость каждой конфигурации.
+public class SelfPlayTournament {
+    static final int MAX_GAME_PLIES = 400;  // После стольких полуходов партия считается ничьей
+
+    // Стандартные дебютные позиции, если файл с позициями не указан
+    static final String[] DEFAULT_OPENINGS = {
+            ChessPosition.START_FEN,
+            "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+            "rnbqkbnr/pp1ppppp/8/2p5/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+            "rnbqkbnr/pppp1ppp/4p3/8/3PP3/8/PPP2PPP/RNBQKBNR b KQkq - 0 2",
+            "rnbqkbnr/ppp1pppp/8/3p4/3P4/8/PPP1PPPP/RNBQKBNR w KQkq - 0 2",
+            "rnbqkb1r/pppppppp/5n2/8/2P5/8/PP1PPPPP/RNBQKBNR w KQkq - 1 2",
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "rnbqkbnr/pp1ppppp/2p5/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+    };
+
+    private final ChessEngine.Config configA;
+    private final ChessEngine.Config configB;
+    private final List<String> openings;
+    private final int threads;
+    private final int maxGames;
+    private final int randomPlies;  // Случайных полуходов после дебютной позиции
+    private final Sprt sprt;
+
+    private final Statistics statsA = new Statistics();
+    private final Statistics statsB = new Statistics();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    // Счет с точки зрения конфигурации A
+    private int wins, draws, losses;
+
+    public SelfPlayTournament(ChessEngine.Config configA, ChessEngine.Config configB, List<String> openings,
+                              int threads, int maxGames, int randomPlies, Sprt sprt) {
+        this.configA = configA;
+        this.configB = configB;
+        this.openings = openings;
+        this.threads = threads;
+        this.maxGames = maxGames;
+        this.randomPlies = randomPlies;
+        this.sprt = sprt;
+    }
+
+    // Запуск турнира; возвращается, когда сыграны все партии или SPRT дал однозначный ответ
+    void run() throws InterruptedException {
+        if (randomPlies == 0 && maxGames > 2 * openings.size()) {
+            System.err.printf("Внимание: без случайных полуходов %d дебютов дают только %d разных партий, "
+                    + "остальные партии - повторы, и оценки Эло и SPRT будут неверны%n", openings.size(), 2 * openings.size());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "self-play");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int game = 0; game < maxGames; game++) {
+            int pair = game / 2;
+            String opening = randomOpening(openings.get(pair % openings.size()), pair);
+            boolean aIsWhite = game % 2 == 0;  // Цвета чередуются на каждом дебюте
+            futures.add(pool.submit(() -> playAndRecord(opening, aIsWhite)));
+        }
+
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (finished.get()) {
+                // Результат уже ясен - отменяем несыгранные партии
+                futures.forEach(future -> future.cancel(false));
+            }
+        }
+
+        // Партия, завершившаяся исключением, не должна молча выпасть из счета
+        IllegalStateException failure = null;
+        for (Future<?> future : futures) {
+            if (future.isCancelled()) continue;
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IllegalStateException("Турнир остановлен: партия завершилась ошибкой", e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        printReport();
+        if (failure != null) throw failure;
+    }
+
+    // Дебют пары партий: позиция из списка плюс randomPlies случайных легальных полуходов.
+    // Зерно зависит только от номера пары, поэтому обе партии пары начинаются из одной позиции
+    private String randomOpening(String fen, int pair) {
+        if (randomPlies == 0) return fen;
+        ChessPosition position = ChessPosition.fromFen(fen);
+        Random random = new Random(pair * 0x9E3779B97F4A7C15L);
+        int[] moves = new int[ChessPosition.MAX_MOVES];
+        for (int i = 0; i < randomPlies; i++) {
+            int count = position.generateLegalMoves(moves);
+            if (count == 0) break;
+            position.makeMove(moves[random.nextInt(count)]);
+        }
+        return position.toFen();
+    }
+
+    private void playAndRecord(String opening, boolean aIsWhite) {
+        if (finished.get()) return;
+
+        double score;  // Очки конфигурации A: 1, 0.5 или 0
+        try {
+            score = playGame(opening, aIsWhite);
+        } catch (RuntimeException e) {
+            // Остальные партии не доигрываем: без этой партии Эло и SPRT были бы посчитаны неверно
+            finished.set(true);
+            throw new IllegalStateException("Ошибка в партии из позиции " + opening
+                    + " (A играет " + (aIsWhite ? "белыми" : "черными") + ")", e);
+        }
+
+        synchronized (this) {
+            if (finished.get()) return;
+            if (score == 1) wins++;
+            else if (score == 0) losses++;
+            else draws++;
+
+            int games = wins + draws + losses;
+            if (games % 10 == 0) {
+                System.out.printf("Партий: %d, +%d =%d -%d, LLR %.2f%n", games, wins, draws, losses,
+                        sprt.logLikelihoodRatio(wins, draws, losses));
+            }
+            if (sprt.decision(wins, draws, losses) != 0) {
+                finished.set(true);
+            }
+        }
+    }
+
+    // Одна партия; возвращает очки конфигурации A
+    private double playGame(String opening, boolean aIsWhite) {
+        ChessPosition position = ChessPosition.fromFen(opening);
+        ChessEngine engineA = new ChessEngine(configA);
+        ChessEngine engineB = new ChessEngine(configB);
+        Ponderer pondererA = configA.ponder ? new Ponderer(engineA) : null;
+        Ponderer pondererB = configB.ponder ? new Ponderer(engineB) : null;
+
+        try {
+            for (int ply = 0; ply < MAX_GAME_PLIES && !finished.get(); ply++) {
+                boolean aToMove = position.whiteTurn == aIsWhite;
+                ChessEngine engine = aToMove ? engineA : engineB;
+                Ponderer ponderer = aToMove ? pondererA : pondererB;
+
+                // Время на ход считаем только по своим часам: обдумывание на времени соперника в него не входит
+                long moveStart = System.nanoTime();
+                ChessEngine.SearchResult result = ponderer != null
+                        ? ponderer.resolve(position, position.lastMove())
+                        : engine.search(position);
+                (aToMove ? statsA : statsB).record(result, System.nanoTime() - moveStart);
+
+                if (result.bestMove == 0) {
+                    // Ходов нет: мат или пат
+                    if (position.isCheckmate()) return aToMove ? 0 : 1;
+                    if (position.isStalemate()) return 0.5;
+                    throw new IllegalStateException("Движок не вернул ход в позиции " + position.toFen());
+                }
+                position.makeMove(result.bestMove);
+                if (ponderer != null) ponderer.start(position, result.pv);
+
+                if (position.repetitionCount() >= 2 || position.isInsufficientMaterial()) return 0.5;
+            }
+            return 0.5;
+        } finally {
+            if (pondererA != null) {
+                pondererA.shutdown();
+                statsA.recordPonder(pondererA);
+            }
+            if (pondererB != null) {
+                pondererB.shutdown();
+                statsB.recordPonder(pondererB);
+            }
+        }
+    }
+
+    private void printReport() {
+        System.out.println();
+        System.out.println("A: " + configA);
+        System.out.println("B: " + configB);
+
+        int games = wins + draws + losses;
+        System.out.printf("Партий: %d, A: +%d =%d -%d%n", games, wins, draws, losses);
+        if (games > 0) {
+            double[] elo = eloWithErrorBars(wins, draws, losses);
+            if (Double.isNaN(elo[1])) {
+                System.out.printf("Разница Эло (A - B): %.1f (интервал не определен: все партии с одним исходом)%n", elo[0]);
+            } else {
+                System.out.printf("Разница Эло (A - B): %.1f ± %.1f (95%%)%n", elo[0], elo[1]);
+            }
+        }
+
+        double llr = sprt.logLikelihoodRatio(wins, draws, losses);
+        int decision = sprt.decision(wins, draws, losses);
+        System.out.printf("SPRT [%.1f, %.1f]: LLR %.2f (границы %.2f, %.2f) - %s%n",
+                sprt.elo0, sprt.elo1, llr, sprt.lowerBound(), sprt.upperBound(),
+                decision > 0 ? "H1 принята (A сильнее)" : decision < 0 ? "H0 принята" : "результат не ясен");
+
+        System.out.println("A: " + statsA.summary());
+        System.out.println("B: " + statsB.summary());
+    }
+
+    // Разница в Эло и полуширина 95% доверительного интервала.
+    // Если все партии закончились одинаково, интервал оценить нельзя - полуширина NaN
+    static double[] eloWithErrorBars(int wins, int draws, int losses) {
+        int games = wins + draws + losses;
+        double score = (wins + 0.5 * draws) / games;
+        double variance = (wins * Math.pow(1 - score, 2)
+                + draws * Math.pow(0.5 - score, 2)
+                + losses * Math.pow(score, 2)) / games;
+        if (variance <= 0) return new double[]{scoreToElo(score), Double.NaN};
+        double error = 1.959964 * Math.sqrt(variance / games);
+        double elo = scoreToElo(score);
+        double margin = (scoreToElo(score + error) - scoreToElo(score - error)) / 2;
+        return new double[]{elo, margin};
+    }
+
+    static double scoreToElo(double score) {
+        score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    static double eloToScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    // Последовательный тест отношения правдоподобия (H0: elo = elo0, H1: elo = elo1)
+    static class Sprt {
+        private static final double PRIOR = 0.5;  // Априорный счет на каждый исход (победа, ничья, поражение)
+
+        final double elo0, elo1, alpha, beta;
+
+        Sprt(double elo0, double elo1, double alpha, double beta) {
+            this.elo0 = elo0;
+            this.elo1 = elo1;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        double lowerBound() {
+            return Math.log(beta / (1 - alpha));
+        }
+
+        double upperBound() {
+            return Math.log((1 - beta) / alpha);
+        }
+
+        // Приближение LLR через среднее и дисперсию очков за партию (обобщенный SPRT).
+        // Частоты исходов считаются с небольшим априорным счетом, чтобы при сплошных победах
+        // или одних ничьих дисперсия не обращалась в ноль и тест все равно приходил к решению
+        double logLikelihoodRatio(int wins, int draws, int losses) {
+            int games = wins + draws + losses;
+            if (games == 0) return 0;
+            double w = wins + PRIOR, d = draws + PRIOR, l = losses + PRIOR;
+            double total = w + d + l;
+            double score = (w + 0.5 * d) / total;
+            double variance = (w * Math.pow(1 - score, 2)
+                    + d * Math.pow(0.5 - score, 2)
+                    + l * Math.pow(score, 2)) / total;
+            double s0 = eloToScore(elo0), s1 = eloToScore(elo1);
+            return (s1 - s0) * (2 * score - s0 - s1) / (2 * variance / games);
+        }
+
+        // 1 - принята H1, -1 - принята H0, 0 - нужно играть дальше
+        int decision(int wins, int draws, int losses) {
+            double llr = logLikelihoodRatio(wins, draws, losses);
+            if (llr >= upperBound()) return 1;
+            if (llr <= lowerBound()) return -1;
+            return 0;
+        }
+    }
+
+    // Скорость и время на ход одной конфигурации
+    static class Statistics {
+        private long nodes;
+        private long searchNanos;
+        private long[] moveTimes = new long[1024];
+        private int moveCount;
+        private long ponderHits, ponderMisses;
+
+        // moveNanos - время хода по своим часам, result.timeNanos - время самого поиска (с обдумыванием)
+        synchronized void record(ChessEngine.SearchResult result, long moveNanos) {
+            nodes += result.nodes;
+            searchNanos += result.timeNanos;
+            if (moveCount == moveTimes.length) moveTimes = Arrays.copyOf(moveTimes, moveCount * 2);
+            moveTimes[moveCount++] = moveNanos;
+        }
+
+        synchronized void recordPonder(Ponderer ponderer) {
+            ponderHits += ponderer.hits();
+            ponderMisses += ponderer.misses();
+        }
+
+        synchronized String summary() {
+            if (moveCount == 0) return "нет ходов";
+            long[] sorted = Arrays.copyOf(moveTimes, moveCount);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long time : sorted) total += time;
+            long nps = searchNanos > 0 ? nodes * 1_000_000_000L / searchNanos : 0;
+            String summary = String.format("%d узлов/с, ходов %d, время на ход (мс): среднее %.1f, p50 %.1f, p90 %.1f, p99 %.1f, макс %.1f",
+                    nps, moveCount, total / 1e6 / moveCount,
+                    percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.9) / 1e6,
+                    percentile(sorted, 0.99) / 1e6, sorted[moveCount - 1] / 1e6);
+            if (ponderHits + ponderMisses > 0) {
+                summary += String.format(", угадано ответов %d из %d", ponderHits, ponderHits + ponderMisses);
+            }
+            return summary;
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+        }
+    }
+
+    // Пример запуска:
+    //   java SelfPlayTournament [файл_с_FEN] [потоков] [партий] [глубинаA] [глубинаB] [мс_на_ход] [ponderA] [случайных_полуходов]
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> openings = args.length > 0 && !args[0].equals("-")
+                ? Files.readAllLines(Path.of(args[0])).stream().filter(line -> !line.isBlank()).toList()
+                : List.of(DEFAULT_OPENINGS);
+        boolean ponderA = args.length > 6 && Boolean.parseBoolean(args[6]);
+
+        // С обдумыванием партия занимает два ядра: поиск соперника и фоновый поиск на его времени.
+        // Если ядер на оба не хватает, обдумывание отнимает процессор у соперника и сравнение смещено в пользу A
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : ponderA ? Math.max(1, cpus / 2) : cpus;
+        if (ponderA && threads * 2 > cpus) {
+            System.err.printf("Внимание: %d партий с обдумыванием на %d ядрах - фоновый поиск A отнимает процессор у B, "
+                    + "сравнение смещено в пользу A (нужно хотя бы по два ядра на поток)%n", threads, cpus);
+        }
+        int games = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int depthA = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int depthB = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        long moveTime = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        ChessEngine.Config configA = new ChessEngine.Config("A", depthA, moveTime);
+        ChessEngine.Config configB = new ChessEngine.Config("B", depthB, moveTime);
+        configA.ponder = ponderA;
+        int randomPlies = args.length > 7 ? Integer.parseInt(args[7]) : 2;
+        new SelfPlayTournament(configA, configB, openings, threads, games, randomPlies,
+                new Sprt(0, 10, 0.05, 0.05)).run();
+    }
+}
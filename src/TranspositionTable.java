@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+// Таблица транспозиций: результаты уже просчитанных позиций по ключу Зобриста.
+// Хранится в двух массивах long (ключ и упакованные данные), чтобы не создавать объект на каждую запись.
+//
+// Упаковка данных:
+//   биты 0-15  - лучший ход
+//   биты 16-31 - оценка (со знаком)
+//   биты 32-39 - глубина
+//   биты 40-41 - тип оценки (EXACT, LOWER, UPPER)
+//   бит 42     - признак занятой записи (чтобы пустая запись отличалась от нулевых данных)
+public class TranspositionTable {
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    final long[] keys;
+    final long[] data;
+    private final int mask;
+
+    public TranspositionTable(int sizeMb) {
+        // Каждая запись занимает 16 байт; размер округляем вниз до степени двойки
+        long entries = Math.max(1024, (long) sizeMb * 1024 * 1024 / 16);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+        keys = new long[size];
+        data = new long[size];
+        mask = size - 1;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    // Возвращает упакованные данные или 0, если позиции нет в таблице
+    long probe(long key) {
+        int index = (int) key & mask;
+        return keys[index] == key ? data[index] : 0;
+    }
+
+    void store(long key, int move, int score, int depth, int flag) {
+        int index = (int) key & mask;
+        // Замещаем запись, если это та же позиция или новая глубина не меньше старой
+        if (keys[index] != key && keys[index] != 0 && depth(data[index]) > depth) {
+            return;
+        }
+        if (move == 0 && keys[index] == key) {
+            move = move(data[index]);  // Сохраняем лучший ход, найденный раньше
+        }
+        keys[index] = key;
+        data[index] = (move & 0xFFFFL)
+                | ((score & 0xFFFFL) << 16)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) flag << 40)
+                | (1L << 42);  // признак занятой записи
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    static int move(long entry) {
+        return (int) (entry & 0xFFFF);
+    }
+
+    static int score(long entry) {
+        return (short) (entry >>> 16);
+    }
+
+    static int depth(long entry) {
+        return (int) ((entry >>> 32) & 0xFF);
+    }
+
+    static int flag(long entry) {
+        return (int) ((entry >>> 40) & 3);
+    }
+}